@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.CaConfig;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeLazyLoadingException;
+import org.shredzone.acme4j.exception.AcmeNetworkException;
+import org.shredzone.acme4j.exception.AcmeRateLimitedException;
+import org.shredzone.acme4j.exception.AcmeRetryAfterException;
+import org.shredzone.acme4j.exception.AcmeServerException;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.kantenkugel.acmeclient.AcmeClient.LOG;
+
+/**
+ * Executes calls to the CA, retrying transient failures.
+ * <p>
+ * Errors are classified as {@link ErrorType#TRANSIENT transient} (network problems, server errors),
+ * {@link ErrorType#RATE_LIMIT rate limits} or {@link ErrorType#PERMANENT permanent} failures.
+ * Only transient errors are retried (with exponential backoff) and all retries of one run share a common budget.
+ * After too many consecutive transient failures, the circuit breaker opens and all calls fail fast
+ * until the cooldown is over, to not hammer an unhealthy CA.
+ * If a deadline is set, calls fail once it has passed, so the next CA can be tried.
+ * <p>
+ * The latency of successful single requests and all transient failures are recorded in the {@link CaConfig}.
+ * One instance should be shared by everything calling the CA, so concurrent jobs of the server share the breaker
+ * and the retry budget. The budget is renewed every hour for long-running servers, the deadline is set per thread.
+ */
+class AcmeCaller {
+    // Max attempts of a single call (including the first one)
+    private static final int MAX_ATTEMPTS = 4;
+    // Max amount of retries over all calls of a run (or of an hour for the server)
+    private static final int RETRY_BUDGET = 20;
+    private static final Duration RETRY_BUDGET_PERIOD = Duration.ofHours(1);
+    // Consecutive transient failures after which the circuit breaker opens
+    private static final int BREAKER_THRESHOLD = 5;
+    private static final Duration BREAKER_COOLDOWN = Duration.ofMinutes(5);
+    private static final long BASE_BACKOFF_MILLIS = 2000L;
+    private static final long MAX_BACKOFF_MILLIS = 60000L;
+
+    private static final String BAD_NONCE = "urn:ietf:params:acme:error:badNonce";
+    private static final String SERVER_INTERNAL = "urn:ietf:params:acme:error:serverInternal";
+
+    private final CaConfig ca;
+    private final Clock clock;
+
+    private final ThreadLocal<Instant> deadline = new ThreadLocal<>();
+
+    private int retriesLeft = RETRY_BUDGET;
+    private Instant budgetRenewedAt;
+    private int consecutiveFailures = 0;
+    private Instant breakerOpenUntil = null;
+
+    AcmeCaller(CaConfig ca) {
+        this(ca, Clock.systemUTC());
+    }
+
+    AcmeCaller(CaConfig ca, Clock clock) {
+        this.ca = ca;
+        this.clock = clock;
+        this.budgetRenewedAt = clock.instant();
+    }
+
+    CaConfig getCa() {
+        return ca;
+    }
+
+    /**
+     * Lets all calls of the current thread fail once the given time from now has passed.
+     */
+    void startDeadline(Duration timeout) {
+        deadline.set(clock.instant().plus(timeout));
+    }
+
+    void clearDeadline() {
+        deadline.remove();
+    }
+
+    /**
+     * Executes a call consisting of a single request to the CA and returns its result.
+     *
+     * @param description
+     *            Short description of the call used in logs and errors
+     * @param call
+     *            The call to execute
+     * @throws AcmeCallException
+     *             If the call failed permanently, was rate-limited or ran out of retries
+     */
+    <T> T call(String description, Call<T> call) throws AcmeCallException {
+        return call(description, call, true);
+    }
+
+    /**
+     * Executes a call consisting of multiple requests to the CA and returns its result.
+     * Unlike {@link #call(String, Call)}, its latency is not recorded, as it would skew the average latency of the CA.
+     *
+     * @see #call(String, Call)
+     */
+    <T> T callMultiple(String description, Call<T> call) throws AcmeCallException {
+        return call(description, call, false);
+    }
+
+    private <T> T call(String description, Call<T> call, boolean timed) throws AcmeCallException {
+        int attempt = 0;
+        while(true) {
+            checkBreaker(description);
+            checkDeadline(description);
+            Exception error;
+            long start = System.nanoTime();
+            try {
+                T result = call.call();
+                if(timed)
+                    ca.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                else
+                    ca.recordSuccess();
+                onSuccess();
+                return result;
+            } catch(AcmeLazyLoadingException ex) {
+                error = (Exception) ex.getCause();
+            } catch(AcmeException | IOException ex) {
+                error = ex;
+            }
+
+            ErrorType type = classify(error);
+            if(type != ErrorType.TRANSIENT)
+                throw new AcmeCallException(description, type, error);
+
+            int retries = onTransientFailure(++attempt);
+            if(retries < 0)
+                throw new AcmeCallException(description, type, error);
+
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+            backoff += ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            Instant deadline = this.deadline.get();
+            if(deadline != null && clock.instant().plusMillis(backoff).isAfter(deadline))
+                throw new AcmeCallException(description, type, error);
+            LOG.warn("{} failed ({}), retrying in {}ms ({} retries left)",
+                    description, error.getMessage(), backoff, retries);
+            try {
+                sleep(backoff);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new AcmeCallException(description, type, error);
+            }
+        }
+    }
+
+    /**
+     * Executes a call to the CA without result.
+     * A {@link AcmeRetryAfterException} is not considered a failure, as the resource was still updated.
+     *
+     * @see #call(String, Call)
+     */
+    void run(String description, Action action) throws AcmeCallException {
+        call(description, () -> {
+            try {
+                action.run();
+            } catch(AcmeRetryAfterException ex) {
+                LOG.debug("{}: CA asked to retry after {}", description, ex.getRetryAfter());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Waits for the backoff before a retry.
+     */
+    void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    private synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        breakerOpenUntil = null;
+    }
+
+    /**
+     * Records a transient failure and takes a retry out of the budget, if the call may be retried.
+     *
+     * @param attempt
+     *            The amount of attempts of the call so far
+     * @return The retries left in the budget, or {@code -1} if the call must not be retried
+     */
+    private synchronized int onTransientFailure(int attempt) {
+        ca.recordFailure();
+        if(++consecutiveFailures >= BREAKER_THRESHOLD) {
+            breakerOpenUntil = clock.instant().plus(BREAKER_COOLDOWN);
+            LOG.error("CA {} failed {} times in a row, pausing all calls until {}", ca.getName(), consecutiveFailures, breakerOpenUntil);
+            return -1;
+        }
+        if(!clock.instant().isBefore(budgetRenewedAt.plus(RETRY_BUDGET_PERIOD))) {
+            retriesLeft = RETRY_BUDGET;
+            budgetRenewedAt = clock.instant();
+        }
+        if(attempt >= MAX_ATTEMPTS || retriesLeft <= 0)
+            return -1;
+        return --retriesLeft;
+    }
+
+    /**
+     * Whether or not the circuit breaker is currently open, meaning all calls fail fast.
+     */
+    synchronized boolean isBreakerOpen() {
+        return breakerOpenUntil != null && clock.instant().isBefore(breakerOpenUntil);
+    }
+
+    private void checkBreaker(String description) throws AcmeCallException {
+        if(isBreakerOpen())
+            throw new AcmeCallException(description, ErrorType.TRANSIENT,
+                    new AcmeException("CA " + ca.getName() + " is considered unhealthy until " + breakerOpenUntil));
+    }
+
+    private void checkDeadline(String description) throws AcmeCallException {
+        Instant deadline = this.deadline.get();
+        if(deadline != null && clock.instant().isAfter(deadline)) {
+            ca.recordFailure();
+            throw new AcmeCallException(description, ErrorType.TRANSIENT,
+                    new AcmeException("Deadline for CA " + ca.getName() + " exceeded"));
+        }
+    }
+
+    static ErrorType classify(Exception ex) {
+        if(ex instanceof AcmeCallException)
+            return ((AcmeCallException) ex).getType();
+        if(ex instanceof AcmeRateLimitedException)
+            return ErrorType.RATE_LIMIT;
+        if(ex instanceof AcmeNetworkException || !(ex instanceof AcmeException))
+            return ErrorType.TRANSIENT;
+        if(ex instanceof AcmeServerException) {
+            String type = String.valueOf(((AcmeServerException) ex).getType());
+            return type.equals(BAD_NONCE) || type.equals(SERVER_INTERNAL) ? ErrorType.TRANSIENT : ErrorType.PERMANENT;
+        }
+        // Errors without problem document are reported as "HTTP <code>: <message>"
+        String message = String.valueOf(ex.getMessage());
+        if(message.startsWith("HTTP 429"))
+            return ErrorType.RATE_LIMIT;
+        if(message.startsWith("HTTP 5"))
+            return ErrorType.TRANSIENT;
+        return ErrorType.PERMANENT;
+    }
+
+    enum ErrorType {
+        TRANSIENT, RATE_LIMIT, PERMANENT
+    }
+
+    interface Call<T> {
+        T call() throws AcmeException, IOException;
+    }
+
+    interface Action {
+        void run() throws AcmeException, IOException;
+    }
+
+    static class AcmeCallException extends AcmeException {
+        private static final long serialVersionUID = 1L;
+
+        private final ErrorType type;
+
+        AcmeCallException(String description, ErrorType type, Exception cause) {
+            super(description + " failed (" + type.name().toLowerCase() + "): " + cause.getMessage(), cause);
+            this.type = type;
+        }
+
+        ErrorType getType() {
+            return type;
+        }
+    }
+}
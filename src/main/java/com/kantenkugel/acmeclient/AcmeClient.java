@@ -15,12 +15,16 @@
 
 package com.kantenkugel.acmeclient;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.kantenkugel.acmeclient.args.ArgParser;
 import com.kantenkugel.acmeclient.args.Args;
+import com.kantenkugel.acmeclient.config.CaConfig;
 import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.ServerConfig;
 import com.kantenkugel.acmeclient.config.SiteConfig;
+import com.kantenkugel.acmeclient.server.JobServer;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.shredzone.acme4j.*;
 import org.shredzone.acme4j.exception.AcmeException;
@@ -29,13 +33,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.security.KeyPair;
 import java.security.Security;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -43,19 +49,27 @@ public class AcmeClient {
 
     static final Logger LOG = LoggerFactory.getLogger(AcmeClient.class);
 
-    private static final String ACME_ADDRESS = "acme://letsencrypt.org"; // acme://letsencrypt.org/staging for testing
-//    private static final String ACME_ADDRESS = "acme://pebble"; //for local testing with pebble
-
     private static final int RENEW_DAYS_LEFT = 10;
 
     // File name of the CSR
     private static final File CONFIG_FILE = new File("config.json");
+    // File name of the CA endpoints, in order of preference
+    private static final File CA_FILE = new File("cas.json");
+    // File name of the persisted rate limit buckets
+    private static final File RATE_LIMIT_FILE = new File("ratelimits.json");
+    // File name of the server settings
+    private static final File SERVER_CONFIG_FILE = new File("server.json");
+    // Directory the configs of jobs submitted to the server are stored in
+    private static final File JOBS_DIR = new File("jobs");
+
+    private static final int DEFAULT_SERVER_PORT = 8555;
+    private static final int DEFAULT_SERVER_WORKERS = 2;
 
     private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
 
     public static void main(String... args) {
         if (args.length == 0) {
-            System.err.println("Usage: AcmeClient.jar register|renew");
+            System.err.println("Usage: AcmeClient.jar register|renew|serve");
             System.exit(1);
         }
 
@@ -69,21 +83,27 @@ public class AcmeClient {
                     register(args);
                     break;
                 case "renew":
-                    renew();
+                    renew(args.length > 1 ? new File(args[1]) : CONFIG_FILE);
+                    break;
+                case "serve":
+                    serve(args);
                     break;
                 default:
-                    LOG.error("Please provide a correct mode arg (register/renew)");
+                    LOG.error("Please provide a correct mode arg (register/renew/serve)");
             }
+        } catch(IssuanceDeferredException ex) {
+            LOG.warn("{}. Run renew again after that", ex.getMessage());
+            System.exit(3);
         } catch(Exception ex) {
             LOG.error("Failed executing the desired action", ex);
             System.exit(1);
         }
     }
 
-    private static Config getConfig() {
+    private static Config getConfig(File configFile) {
         try {
-            return CONFIG_FILE.exists()
-                    ? MAPPER.readValue(CONFIG_FILE, Config.class)
+            return configFile.exists()
+                    ? MAPPER.readValue(configFile, Config.class)
                     : null;
         } catch(IOException ex) {
             LOG.error("Error reading the sites file", ex);
@@ -91,6 +111,15 @@ public class AcmeClient {
         }
     }
 
+    private static List<CaConfig> getCas() throws IOException {
+        if(!CA_FILE.exists())
+            return new ArrayList<>(Collections.singletonList(CaConfig.getDefault()));
+        List<CaConfig> cas = MAPPER.readValue(CA_FILE, new TypeReference<List<CaConfig>>() {});
+        if(cas.isEmpty())
+            throw new IOException("No CAs are defined in " + CA_FILE.getPath());
+        return cas;
+    }
+
     private static void register(String[] args) throws IOException, AcmeException {
         if(args.length == 1) {
             LOG.info("Usage: AcmeClient.jar register --override -p /statics/path -d my.domain.com [-d another.domain.com ...] [-p /statics/other -d ...]");
@@ -99,8 +128,19 @@ public class AcmeClient {
 
         Args parsedArgs = new ArgParser().parse(args);
 
+        if(!parsedArgs.getErrors().isEmpty()) {
+            parsedArgs.getErrors().forEach(LOG::error);
+            LOG.error("Found {} invalid arguments. Aborting", parsedArgs.getErrors().size());
+            System.exit(1);
+        }
+
+        if(parsedArgs.getSiteConfigs().isEmpty()) {
+            LOG.error("No domains were declared");
+            System.exit(1);
+        }
+
         Config cfg;
-        if(!parsedArgs.isOverride() && (cfg = getConfig()) != null && !cfg.getSiteConfigs().isEmpty()) {
+        if(!parsedArgs.isOverride() && (cfg = getConfig(CONFIG_FILE)) != null && !cfg.getSiteConfigs().isEmpty()) {
             LOG.warn("Detected already existing domain registrations.\n" +
                     "If you want to just renew them, use the renew mode instead of register.\n" +
                     "Otherwise execute the program with the argument \"override\" directly following the register argument.\n" +
@@ -111,28 +151,46 @@ public class AcmeClient {
         if(!parsedArgs.isQuiet()) {
             StringBuilder sb = new StringBuilder("About to create following certs:\n");
             Map<File, List<SiteConfig>> webroots = parsedArgs.getSiteConfigs().stream().collect(Collectors.groupingBy(SiteConfig::getStaticsDir));
+            boolean listDomains = parsedArgs.getSiteConfigs().size() <= IssuancePlan.MAX_DOMAINS_PER_CERT;
             webroots.forEach((key, value) -> {
-                sb.append("Webroot ").append(key.getAbsolutePath()).append('\n');
+                sb.append("Webroot ").append(key.getAbsolutePath());
+                if(!listDomains) {
+                    sb.append(" (").append(value.size()).append(" domains)\n");
+                    return;
+                }
+                sb.append('\n');
                 value.forEach(site -> {
-                    sb.append('\t').append(site.getDomain()).append('\n');
+                    sb.append('\t').append(site.getDomain());
+                    if(!site.getTargets().isEmpty())
+                        sb.append(" (also published to ").append(site.getTargets()).append(')');
+                    sb.append('\n');
                 });
             });
+            int certCount = IssuancePlan.plan(parsedArgs.getConfig()).size();
+            if(certCount > 1)
+                sb.append("Domains will be split into ").append(certCount).append(" certificates\n");
             sb.append("Key file: ").append(parsedArgs.getKeyFile().getAbsolutePath())
                     .append("\nCert file: ").append(parsedArgs.getCertFile().getAbsolutePath());
+            if(parsedArgs.getLeafFile() != null)
+                sb.append("\nLeaf cert file: ").append(parsedArgs.getLeafFile().getAbsolutePath());
+            if(parsedArgs.getChainFile() != null)
+                sb.append("\nChain file: ").append(parsedArgs.getChainFile().getAbsolutePath());
+            if(parsedArgs.getChainPreference().getPreferredIssuer() != null)
+                sb.append("\nPreferred chain issuer: ").append(parsedArgs.getChainPreference().getPreferredIssuer());
+            if(parsedArgs.getChainPreference().isShortest())
+                sb.append("\nUsing shortest chain");
             sb.append("\nIs this correct?");
             if(!Utils.userConfirmation(sb.toString()))
                 return;
         }
 
-        KeyPair userKeyPair = Entities.loadOrCreateAccountKeyPair();
-
         KeyPair domainKeyPair = Entities.loadOrCreateDomainKeyPair(parsedArgs.getKeyFile());
 
-        requestCert(parsedArgs.getConfig(), userKeyPair, domainKeyPair, parsedArgs.isQuiet());
+        requestCertsAndRunHooks(parsedArgs.getConfig(), CONFIG_FILE, domainKeyPair, parsedArgs.isQuiet());
     }
 
-    private static void renew() throws IOException, AcmeException {
-        Config cfg = getConfig();
+    private static void renew(File configFile) throws IOException, AcmeException {
+        Config cfg = getConfig(configFile);
         if(cfg == null || cfg.getSiteConfigs().isEmpty()) {
             LOG.error("No sites are registered. Can't renew");
             System.exit(1);
@@ -146,32 +204,150 @@ public class AcmeClient {
         if(cfg.getKeyFile() == null || !cfg.getKeyFile().exists())
             throw new AcmeException("Key file does not exist. Aborting renewal");
 
-        KeyPair userKeyPair = Entities.loadAccountKeyPair();
-        if(userKeyPair == null)
-            throw new AcmeException("No account KeyPair was found. Aborting renewal");
-
         KeyPair domainKeyPair = Entities.loadDomainKeyPair(cfg.getKeyFile());
         if(domainKeyPair == null)
             throw new AcmeException("No domain KeyPair found. Aborting renewal");
 
-        requestCert(cfg, userKeyPair, domainKeyPair, true);
+        requestCertsAndRunHooks(cfg, configFile, domainKeyPair, true);
     }
 
-    private static void requestCert(Config config, KeyPair userKeyPair,
-                                    KeyPair domainKeyPair, boolean skipToS) throws AcmeException, IOException {
-        Map<String, SiteConfig> requestedDomains = config.getSiteConfigs().stream()
-                .collect(Collectors.toMap(SiteConfig::getDomain, Function.identity()));
+    private static void serve(String[] args) throws IOException {
+        int port = DEFAULT_SERVER_PORT;
+        int workers = DEFAULT_SERVER_WORKERS;
+        try {
+            for(int i = 1; i + 1 < args.length; i += 2) {
+                switch(args[i].toLowerCase()) {
+                    case "--port":
+                        port = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--workers":
+                        workers = Integer.parseInt(args[i + 1]);
+                        break;
+                    default:
+                        LOG.error("Unknown option {}", args[i]);
+                        System.exit(1);
+                }
+            }
+        } catch(NumberFormatException ex) {
+            LOG.error("Invalid number: {}", ex.getMessage());
+            System.exit(1);
+        }
 
-        Session session = new Session(ACME_ADDRESS);
+        ServerConfig serverConfig = SERVER_CONFIG_FILE.exists()
+                ? MAPPER.readValue(SERVER_CONFIG_FILE, ServerConfig.class)
+                : ServerConfig.getDefault();
+        for(File dir : Arrays.asList(JOBS_DIR, serverConfig.getOutputDir())) {
+            if(!dir.exists() && !dir.mkdirs())
+                throw new IOException("Could not create directory " + dir.getAbsolutePath());
+        }
+        String token = Entities.loadOrCreateServerToken(serverConfig.getTokenFile());
+
+        // Shared by all jobs, so hooks are debounced and the health, circuit breakers, retry budgets
+        // and rate limits of the CAs are tracked across jobs
+        HookDispatcher hooks = new HookDispatcher(true);
+        CaFailover failover = CaFailover.of(getCas(), RateLimitGovernor.load(RATE_LIMIT_FILE));
+        JobServer server = new JobServer((jobId, config) -> {
+            KeyPair domainKeyPair = Entities.loadOrCreateDomainKeyPair(config.getKeyFile());
+            requestCerts(config, new File(JOBS_DIR, jobId + ".json"), domainKeyPair, true, hooks, failover);
+        }, workers, serverConfig, token);
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
 
-        Account acct = Entities.findOrRegisterAccount(session, userKeyPair, skipToS);
+    private static void requestCertsAndRunHooks(Config config, File configFile, KeyPair domainKeyPair,
+                                                boolean skipToS) throws AcmeException, IOException {
+        // The run is the batch, so hooks are only run once at its end
+        HookDispatcher hooks = new HookDispatcher(false);
+        try {
+            requestCerts(config, configFile, domainKeyPair, skipToS, hooks,
+                    CaFailover.of(getCas(), RateLimitGovernor.load(RATE_LIMIT_FILE)));
+        } catch(AcmeException | IOException ex) {
+            // Certificates that were issued before the failure still have to be deployed
+            hooks.flush();
+            throw ex;
+        }
+        int failed = hooks.flush();
+        if(failed > 0)
+            throw new IOException(failed + " post-issuance hooks failed");
+    }
+
+    private static void requestCerts(Config config, File configFile, KeyPair domainKeyPair, boolean skipToS,
+                                     HookDispatcher hooks, CaFailover failover) throws AcmeException, IOException {
+        List<Config> plan = IssuancePlan.plan(config);
+        if(plan.size() > 1)
+            LOG.info("Splitting {} domains into {} certificates", config.getSiteConfigs().size(), plan.size());
+
+        // The config only tracks the earliest expiry, so all certificates are renewed together.
+        // Certificates that could not be issued keep the old expiry (or none on registration), so they are retried next run
+        Date expiry = null;
+        int failed = 0;
+        int deferred = 0;
+        Instant retryAt = null;
+        int chainSize = 0;
+        try {
+            for(Config part : plan) {
+                Certificate certificate;
+                try {
+                    certificate = failover.issue(part, connection -> {
+                        connection.connect(skipToS);
+                        return requestCert(connection.getLogin(), connection.getAccount(), part, domainKeyPair,
+                                connection.getCaller(), failover.getLimits());
+                    });
+                } catch(IssuanceDeferredException ex) {
+                    LOG.warn("Deferring certificate {} until {} to stay within the rate limits",
+                            part.getCertFile().getPath(), ex.getRetryAt());
+                    deferred++;
+                    if(retryAt == null || ex.getRetryAt().isBefore(retryAt))
+                        retryAt = ex.getRetryAt();
+                    continue;
+                }
+                if(certificate == null) {
+                    failed++;
+                    continue;
+                }
+                Date notAfter = certificate.getCertificate().getNotAfter();
+                if(expiry == null || notAfter.before(expiry))
+                    expiry = notAfter;
+                chainSize = Math.max(chainSize, part.getChainSize());
+                hooks.certificateIssued(part, notAfter);
+            }
+        } finally {
+            // Remember account URLs and the health of the CAs for the next run
+            storeCas(failover.getCas());
+            failover.getLimits().store();
+        }
+
+        if(failed == plan.size())
+            throw new AcmeException("Could not issue any certificate");
+
+        // The largest chain of the issued parts, the size stored by a previous run is only kept if none was issued
+        if(chainSize > 0)
+            config.setChainSize(chainSize);
+
+        if(failed > 0 || deferred > 0) {
+            Date previous = config.getExpiry() == null ? new Date() : config.getExpiry();
+            if(expiry == null || previous.before(expiry))
+                expiry = previous;
+        }
+        storeSiteConfigs(configFile, config, expiry);
+
+        if(failed > 0)
+            throw new AcmeException(failed + " of " + plan.size() + " certificates could not be issued");
+        if(deferred > 0)
+            throw new IssuanceDeferredException(deferred + " of " + plan.size() + " certificates were deferred until "
+                    + retryAt + " to stay within the rate limits", retryAt);
+    }
+
+    private static Certificate requestCert(Login login, Account acct, Config config, KeyPair domainKeyPair,
+                                           AcmeCaller caller, RateLimitGovernor limits) throws AcmeException, IOException {
+        Map<String, SiteConfig> requestedDomains = config.getSiteConfigs().stream()
+                .collect(Collectors.toMap(SiteConfig::getDomain, Function.identity()));
 
         LOG.info("Ordering domains");
-        Order order = acct.newOrder().domains(requestedDomains.keySet()).create();
+        Order order = caller.call("Creating order", () -> acct.newOrder().domains(requestedDomains.keySet()).create());
 
         // Perform all required authorizations
-        for (Authorization auth : order.getAuthorizations()) {
-            Utils.authorize(auth, requestedDomains.get(auth.getDomain()));
+        for (Authorization auth : caller.call("Fetching authorizations", order::getAuthorizations)) {
+            Utils.authorize(auth, requestedDomains.get(auth.getIdentifier().getDomain()), caller, limits);
         }
 
         // Generate a CSR for all of the domains, and sign it with the domain key pair.
@@ -180,7 +356,11 @@ public class AcmeClient {
         csrb.sign(domainKeyPair);
 
         // Order the certificate
-        order.execute(csrb.getEncoded());
+        byte[] csr = csrb.getEncoded();
+        finalizeOrder(caller, () -> order.execute(csr), () -> {
+            order.update();
+            return order.getStatus();
+        });
 
         // Wait for the order to complete
         try {
@@ -195,7 +375,7 @@ public class AcmeClient {
                 Thread.sleep(3000L);
 
                 // Then update the status
-                order.update();
+                caller.run("Updating order", order::update);
             }
         } catch (InterruptedException ex) {
             LOG.error("interrupted", ex);
@@ -203,24 +383,56 @@ public class AcmeClient {
         }
 
         // Get the certificate
-        Certificate certificate = order.getCertificate();
-        if(certificate == null)
+        Certificate defaultCertificate = order.getCertificate();
+        if(defaultCertificate == null)
             throw new AcmeException("Could not get certificate");
+        caller.run("Downloading certificate", defaultCertificate::download);
 
-        // Write a combined file containing the certificate and chain.
-        try (FileWriter fw = new FileWriter(config.getCertFile())) {
-            certificate.writeCertificate(fw);
-        }
+        // Pick the chain to use out of the ones offered by the CA
+        Certificate certificate = caller.callMultiple("Selecting certificate chain",
+                () -> Chains.select(login, defaultCertificate, config.getChainPreference()));
 
-        storeSiteConfigs(config, certificate);
+        config.setChainSize(Chains.write(certificate, config));
+        LOG.info("Chain size is {} bytes", config.getChainSize());
 
         LOG.info("Success! The certificate for domains " + requestedDomains.keySet() + " has been generated!");
         LOG.debug("Certificate URL: " + certificate.getLocation());
+        return certificate;
     }
 
-    private static void storeSiteConfigs(Config requests, Certificate certificate) throws IOException {
-        requests.setExpiry(certificate.getCertificate().getNotAfter());
+    /**
+     * Finalizes an order, retrying transient failures.
+     * Finalizing is not idempotent: if the response of a previous attempt got lost, the order is no longer ready.
+     * So retries first fetch the status and only finalize again if the order wasn't finalized yet.
+     *
+     * @param finalize
+     *            Finalizes the order
+     * @param update
+     *            Updates the order and returns its status
+     */
+    static void finalizeOrder(AcmeCaller caller, AcmeCaller.Action finalize, AcmeCaller.Call<Status> update)
+            throws AcmeException {
+        AtomicBoolean finalizing = new AtomicBoolean();
+        caller.run("Finalizing order", () -> {
+            if(finalizing.getAndSet(true)) {
+                Status status = update.call();
+                if(status == Status.PROCESSING || status == Status.VALID || status == Status.INVALID)
+                    return;
+            }
+            finalize.run();
+        });
+    }
+
+    private static void storeSiteConfigs(File configFile, Config requests, Date expiry) throws IOException {
+        requests.setExpiry(expiry);
 
-        MAPPER.writeValue(CONFIG_FILE, requests);
+        Utils.writeAtomically(configFile, false, writer -> MAPPER.writeValue(writer, requests));
+    }
+
+    private static void storeCas(List<CaConfig> cas) throws IOException {
+        // Jobs of the server may finish at the same time
+        synchronized(CA_FILE) {
+            Utils.writeAtomically(CA_FILE, false, writer -> MAPPER.writeValue(writer, cas));
+        }
     }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.CaConfig;
+import org.shredzone.acme4j.Account;
+import org.shredzone.acme4j.Login;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeException;
+
+import java.io.IOException;
+import java.security.KeyPair;
+
+/**
+ * The connection to a single CA, shared by all jobs of a run (or the server).
+ * The account is only loaded (or registered) once the CA is actually used.
+ */
+class CaConnection {
+    private final CaConfig ca;
+    private final AcmeCaller caller;
+
+    private volatile Account account;
+    private volatile Login login;
+
+    CaConnection(CaConfig ca) {
+        this(ca, new AcmeCaller(ca));
+    }
+
+    CaConnection(CaConfig ca, AcmeCaller caller) {
+        this.ca = ca;
+        this.caller = caller;
+    }
+
+    /**
+     * Loads or creates the account key pair of the CA and finds or registers the account, if not done yet.
+     */
+    synchronized void connect(boolean skipToS) throws AcmeException, IOException {
+        if(account != null)
+            return;
+
+        KeyPair accountKeyPair = Entities.loadOrCreateAccountKeyPair(ca.getAccountKeyFile());
+        Session session = new Session(ca.getDirectory());
+        Account acct = Entities.findOrRegisterAccount(session, accountKeyPair, ca, skipToS, caller);
+        login = session.login(acct.getLocation(), accountKeyPair);
+        account = acct;
+    }
+
+    CaConfig getCa() {
+        return ca;
+    }
+
+    AcmeCaller getCaller() {
+        return caller;
+    }
+
+    Account getAccount() {
+        return account;
+    }
+
+    Login getLogin() {
+        return login;
+    }
+}
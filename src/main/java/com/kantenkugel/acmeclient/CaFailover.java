@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.CaConfig;
+import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.SiteConfig;
+import org.shredzone.acme4j.exception.AcmeException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.kantenkugel.acmeclient.AcmeClient.LOG;
+
+/**
+ * Issues certificates at the first of the configured CAs able to do so.
+ * <p>
+ * Healthy CAs are tried first, otherwise the configured order is kept.
+ * Every CA has to issue the certificate within its deadline, otherwise the next one is tried.
+ * CAs whose circuit breaker is open or whose rate limits would be exceeded by the order are skipped.
+ */
+class CaFailover {
+    private final List<CaConnection> connections;
+    private final RateLimitGovernor limits;
+
+    CaFailover(List<CaConnection> connections, RateLimitGovernor limits) {
+        this.connections = connections;
+        this.limits = limits;
+    }
+
+    static CaFailover of(List<CaConfig> cas, RateLimitGovernor limits) {
+        return new CaFailover(cas.stream().map(CaConnection::new).collect(Collectors.toList()), limits);
+    }
+
+    /**
+     * Returns the CAs in the configured order.
+     */
+    List<CaConfig> getCas() {
+        return connections.stream().map(CaConnection::getCa).collect(Collectors.toList());
+    }
+
+    RateLimitGovernor getLimits() {
+        return limits;
+    }
+
+    /**
+     * Returns the connections in the order they are tried in.
+     */
+    List<CaConnection> getConnections() {
+        return connections.stream()
+                .sorted(Comparator.comparing(connection -> !connection.getCa().isHealthy()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Tries to issue the certificate at every CA in order, until one of them succeeds within its deadline.
+     *
+     * @param config
+     *            The config of the certificate
+     * @param attempt
+     *            Issues the certificate at a single CA
+     * @return The issued certificate, or {@code null} if no CA could issue it
+     * @throws IssuanceDeferredException
+     *             If no CA could issue it, but at least one of them can after its rate limits recovered
+     */
+    <T> T issue(Config config, Attempt<T> attempt) throws IssuanceDeferredException {
+        List<String> domains = config.getSiteConfigs().stream().map(SiteConfig::getDomain).collect(Collectors.toList());
+        Instant retryAt = null;
+        for(CaConnection connection : getConnections()) {
+            CaConfig ca = connection.getCa();
+            if(connection.getCaller().isBreakerOpen()) {
+                LOG.warn("Skipping CA {} for certificate {} as it is unhealthy", ca.getName(), config.getCertFile().getPath());
+                continue;
+            }
+            Instant slot = limits.tryAcquireOrder(ca, domains);
+            if(slot != null) {
+                LOG.warn("Skipping CA {} for certificate {} as its rate limits are exhausted until {}",
+                        ca.getName(), config.getCertFile().getPath(), slot);
+                if(retryAt == null || slot.isBefore(retryAt))
+                    retryAt = slot;
+                continue;
+            }
+            connection.getCaller().startDeadline(Duration.ofMinutes(ca.getDeadlineMinutes()));
+            try {
+                LOG.info("Requesting certificate {} at CA {}", config.getCertFile().getPath(), ca.getName());
+                return attempt.issue(connection);
+            } catch(AcmeException | IOException ex) {
+                LOG.error("Could not issue certificate {} at CA {}", config.getCertFile().getPath(), ca.getName(), ex);
+            } finally {
+                connection.getCaller().clearDeadline();
+            }
+        }
+        if(retryAt != null)
+            throw new IssuanceDeferredException("Rate limits of all usable CAs are exhausted", retryAt);
+        return null;
+    }
+
+    /**
+     * Issues a certificate at a single CA.
+     */
+    interface Attempt<T> {
+        T issue(CaConnection connection) throws AcmeException, IOException;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.ChainPreference;
+import com.kantenkugel.acmeclient.config.Config;
+import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.Login;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.toolbox.AcmeUtils;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.kantenkugel.acmeclient.AcmeClient.LOG;
+
+class Chains {
+
+    /**
+     * Picks the certificate chain to use out of the default chain and all alternate chains offered by the CA.
+     * Alternate chains are only fetched if the preference isn't the default one.
+     *
+     * @param login
+     *            {@link Login} used to bind the alternate certificate resources
+     * @param certificate
+     *            The default {@link Certificate} returned by the order
+     * @param preference
+     *            The {@link ChainPreference} to select by
+     * @return The selected {@link Certificate}, which is the default one if no alternate fits better
+     */
+    static Certificate select(Login login, Certificate certificate, ChainPreference preference) throws AcmeException {
+        if(preference.isDefault())
+            return certificate;
+
+        List<Certificate> candidates = new ArrayList<>();
+        candidates.add(certificate);
+        for(URL alternate : certificate.getAlternates())
+            candidates.add(login.bindCertificate(alternate));
+        LOG.info("CA offers {} certificate chain(s)", candidates.size());
+
+        if(preference.getPreferredIssuer() != null) {
+            List<Certificate> matching = candidates.stream()
+                    .filter(cert -> preference.getPreferredIssuer().equalsIgnoreCase(getTopIssuer(cert)))
+                    .collect(Collectors.toList());
+            if(matching.isEmpty())
+                LOG.warn("No chain with issuer {} offered by the CA, ignoring issuer preference", preference.getPreferredIssuer());
+            else
+                candidates = matching;
+        }
+
+        if(!preference.isShortest())
+            return candidates.get(0);
+
+        Certificate shortest = candidates.get(0);
+        for(Certificate candidate : candidates) {
+            if(compareSize(candidate, shortest) < 0)
+                shortest = candidate;
+        }
+        return shortest;
+    }
+
+    /**
+     * Writes the certificate chain to the file(s) configured in the given {@link Config}.
+     * The full chain is always written, the leaf-only and chain-only files are optional.
+     *
+     * @return The size in bytes of the DER-encoded chain
+     */
+    static int write(Certificate certificate, Config config) throws IOException, AcmeException {
+        // Write a combined file containing the certificate and chain.
+        Utils.writeAtomically(config.getCertFile(), false, certificate::writeCertificate);
+
+        List<X509Certificate> chain = certificate.getCertificateChain();
+        if(config.getLeafFile() != null)
+            writePem(chain.subList(0, 1), config.getLeafFile());
+        if(config.getChainFile() != null)
+            writePem(chain.subList(1, chain.size()), config.getChainFile());
+
+        return getSize(certificate);
+    }
+
+    private static void writePem(List<X509Certificate> certs, File file) throws IOException, AcmeException {
+        List<byte[]> encoded = new ArrayList<>(certs.size());
+        for(X509Certificate cert : certs)
+            encoded.add(encode(cert));
+        Utils.writeAtomically(file, false, writer -> {
+            for(byte[] cert : encoded)
+                AcmeUtils.writeToPem(cert, AcmeUtils.PemLabel.CERTIFICATE, writer);
+        });
+    }
+
+    private static int compareSize(Certificate first, Certificate second) throws AcmeException {
+        int byLength = Integer.compare(first.getCertificateChain().size(), second.getCertificateChain().size());
+        return byLength != 0 ? byLength : Integer.compare(getSize(first), getSize(second));
+    }
+
+    private static int getSize(Certificate certificate) throws AcmeException {
+        int size = 0;
+        for(X509Certificate cert : certificate.getCertificateChain())
+            size += encode(cert).length;
+        return size;
+    }
+
+    private static byte[] encode(X509Certificate cert) throws AcmeException {
+        try {
+            return cert.getEncoded();
+        } catch(CertificateEncodingException ex) {
+            throw new AcmeException("Could not encode certificate " + cert.getSubjectX500Principal(), ex);
+        }
+    }
+
+    /**
+     * Returns the common name of the issuer of the topmost certificate in the chain,
+     * which is the root certificate the chain leads up to.
+     */
+    private static String getTopIssuer(Certificate certificate) {
+        List<X509Certificate> chain = certificate.getCertificateChain();
+        String issuer = chain.get(chain.size() - 1).getIssuerX500Principal().getName();
+        try {
+            return new LdapName(issuer).getRdns().stream()
+                    .filter(rdn -> rdn.getType().equalsIgnoreCase("CN"))
+                    .map(Rdn::getValue)
+                    .map(Object::toString)
+                    .findFirst()
+                    .orElse(issuer);
+        } catch(InvalidNameException ex) {
+            return issuer;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.ChallengeTarget;
+import org.shredzone.acme4j.exception.AcmeException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.kantenkugel.acmeclient.AcmeClient.LOG;
+
+/**
+ * Publishes http-01 challenge tokens to all {@link ChallengeTarget ChallengeTargets} of a site in parallel.
+ * <p>
+ * This is needed if the domain is served by multiple backends (eg. behind a load balancer),
+ * as the validation request of the CA can hit any of them.
+ */
+class ChallengePublisher {
+    private static final String CHALLENGE_DIR = ".well-known/acme-challenge/";
+
+    // Max time a publish/cleanup command may take before it is killed
+    private static final long COMMAND_TIMEOUT_SECONDS = 60;
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "ChallengePublisher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Writes the token to all targets and waits until every write is confirmed.
+     * If any target fails, the token is removed from all targets again.
+     *
+     * @throws AcmeException
+     *             If the token could not be published to at least one of the targets
+     */
+    static void publish(List<ChallengeTarget> targets, String token, String content) throws AcmeException {
+        List<String> failures = runAll("Publishing", targets, target -> {
+            if(target.getWebroot() != null) {
+                File challengeDir = new File(target.getWebroot(), CHALLENGE_DIR);
+                // Another worker may create the directory at the same time
+                if(!challengeDir.mkdirs() && !challengeDir.isDirectory())
+                    throw new IOException("Could not create challenge directory " + challengeDir.getAbsolutePath());
+                try(FileWriter fw = new FileWriter(new File(challengeDir, token))) {
+                    fw.write(content);
+                }
+            } else {
+                File tokenFile = File.createTempFile("acme-challenge", null);
+                try {
+                    try(FileWriter fw = new FileWriter(tokenFile)) {
+                        fw.write(content);
+                    }
+                    runCommand(target, "publish", token, tokenFile.getAbsolutePath());
+                } finally {
+                    tokenFile.delete();
+                }
+            }
+        });
+
+        if(!failures.isEmpty()) {
+            cleanup(targets, token);
+            throw new AcmeException("Could not publish challenge token to all targets: " + String.join(", ", failures));
+        }
+    }
+
+    /**
+     * Removes the token from all targets. Failures are only logged.
+     * The challenge directory is kept, as other authorizations (eg. of other jobs) may still use it.
+     */
+    static void cleanup(List<ChallengeTarget> targets, String token) {
+        List<String> failures = runAll("Cleaning up", targets, target -> {
+            if(target.getWebroot() != null) {
+                File tokenFile = new File(new File(target.getWebroot(), CHALLENGE_DIR), token);
+                if(tokenFile.exists() && !tokenFile.delete())
+                    throw new IOException("Could not delete " + tokenFile.getAbsolutePath());
+            } else {
+                runCommand(target, "cleanup", token);
+            }
+        });
+
+        if(!failures.isEmpty())
+            LOG.warn("Could not clean up challenge token on all targets: " + String.join(", ", failures));
+    }
+
+    /**
+     * Runs the action for all targets in parallel and logs the time each of them took.
+     *
+     * @return Descriptions of all failed targets
+     */
+    private static List<String> runAll(String actionName, List<ChallengeTarget> targets, TargetAction action) {
+        Map<ChallengeTarget, CompletableFuture<Void>> futures = targets.stream()
+                .distinct()
+                .collect(Collectors.toMap(target -> target, target -> CompletableFuture.runAsync(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        action.run(target);
+                    } catch(IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    } finally {
+                        LOG.info("{} challenge token on {} took {}ms", actionName, target,
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                }, EXECUTOR)));
+
+        List<String> failures = new ArrayList<>();
+        futures.forEach((target, future) -> {
+            try {
+                future.join();
+            } catch(CompletionException ex) {
+                Throwable cause = ex.getCause() instanceof UncheckedIOException ? ex.getCause().getCause() : ex.getCause();
+                LOG.error("{} challenge token on {} failed: {}", actionName, target, cause.getMessage());
+                LOG.debug("Failure details", cause);
+                failures.add(target + " (" + cause.getMessage() + ')');
+            }
+        });
+        return failures;
+    }
+
+    private static void runCommand(ChallengeTarget target, String... args) throws IOException {
+        List<String> command = new ArrayList<>(target.getCommandLine());
+        command.addAll(Arrays.asList(args));
+        Utils.runCommand(command, Collections.emptyMap(), COMMAND_TIMEOUT_SECONDS);
+    }
+
+    private interface TargetAction {
+        void run(ChallengeTarget target) throws IOException;
+    }
+}
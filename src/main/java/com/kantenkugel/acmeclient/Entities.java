@@ -16,6 +16,7 @@
 
 package com.kantenkugel.acmeclient;
 
+import com.kantenkugel.acmeclient.config.CaConfig;
 import org.shredzone.acme4j.Account;
 import org.shredzone.acme4j.AccountBuilder;
 import org.shredzone.acme4j.Session;
@@ -24,38 +25,37 @@ import org.shredzone.acme4j.util.KeyPairUtils;
 
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.KeyPair;
+import java.security.SecureRandom;
 
 import static com.kantenkugel.acmeclient.AcmeClient.LOG;
 
 class Entities {
-    // File name of the User Key Pair
-    private static final File USER_KEY_FILE = new File("caAccount.key");
-
     // RSA key size of generated key pairs
     private static final int KEY_SIZE = 2048;
+    // Amount of random bytes of the server token
+    private static final int TOKEN_BYTES = 32;
 
-    static KeyPair loadOrCreateAccountKeyPair() throws IOException {
-        KeyPair kp = loadAccountKeyPair();
+    static synchronized KeyPair loadOrCreateAccountKeyPair(File keyFile) throws IOException {
+        KeyPair kp = loadAccountKeyPair(keyFile);
         if(kp != null)
             return kp;
 
         // If there is none, create a new key pair and save it
         KeyPair userKeyPair = KeyPairUtils.createKeyPair(KEY_SIZE);
-        try (FileWriter fw = new FileWriter(USER_KEY_FILE)) {
-            KeyPairUtils.writeKeyPair(userKeyPair, fw);
-        }
+        Utils.writeAtomically(keyFile, true, writer -> KeyPairUtils.writeKeyPair(userKeyPair, writer));
         return userKeyPair;
     }
 
-    static KeyPair loadAccountKeyPair() throws IOException {
+    static KeyPair loadAccountKeyPair(File keyFile) throws IOException {
         LOG.info("Getting Account KeyPair");
-        if (USER_KEY_FILE.exists()) {
+        if (keyFile.exists()) {
             // If there is a key file, read it
-            try (FileReader fr = new FileReader(USER_KEY_FILE)) {
+            try (FileReader fr = new FileReader(keyFile)) {
                 return KeyPairUtils.readKeyPair(fr);
             }
         } else {
@@ -63,15 +63,13 @@ class Entities {
         }
     }
 
-    static KeyPair loadOrCreateDomainKeyPair(File keyFile) throws IOException {
+    static synchronized KeyPair loadOrCreateDomainKeyPair(File keyFile) throws IOException {
         KeyPair kp = loadDomainKeyPair(keyFile);
         if(kp != null)
             return kp;
 
         KeyPair domainKeyPair = KeyPairUtils.createKeyPair(KEY_SIZE);
-        try (FileWriter fw = new FileWriter(keyFile)) {
-            KeyPairUtils.writeKeyPair(domainKeyPair, fw);
-        }
+        Utils.writeAtomically(keyFile, true, writer -> KeyPairUtils.writeKeyPair(domainKeyPair, writer));
         return domainKeyPair;
     }
 
@@ -86,21 +84,52 @@ class Entities {
         }
     }
 
-    static Account findOrRegisterAccount(Session session, KeyPair accountKey, boolean skipToS) throws AcmeException {
+    /**
+     * Loads the token clients of the server have to authenticate with, creating a random one if missing.
+     * The file is only readable by the owner.
+     */
+    static String loadOrCreateServerToken(File tokenFile) throws IOException {
+        if(tokenFile.exists()) {
+            String token = new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.UTF_8).trim();
+            if(token.isEmpty())
+                throw new IOException("Token file " + tokenFile.getPath() + " is empty");
+            return token;
+        }
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for(byte b : bytes)
+            sb.append(String.format("%02x", b));
+        String token = sb.toString();
+        Utils.writeAtomically(tokenFile, true, writer -> writer.write(token));
+        LOG.info("Created server token in {}", tokenFile.getAbsolutePath());
+        return token;
+    }
+
+    static Account findOrRegisterAccount(Session session, KeyPair accountKey, CaConfig ca, boolean skipToS,
+                                         AcmeCaller caller) throws AcmeException {
+        // Reuse the known account, which saves a round trip and the ToS confirmation
+        if(ca.getAccountUrl() != null) {
+            LOG.info("Using existing account at CA {}", ca.getName());
+            return session.login(ca.getAccountUrl(), accountKey).getAccount();
+        }
+
         // Ask the user to accept the TOS, if server provides us with a link.
         LOG.info("Registering / Fetching account...");
-        URI tos = session.getMetadata().getTermsOfService();
+        URI tos = caller.call("Fetching CA metadata", () -> session.getMetadata().getTermsOfService());
         if (tos != null && !skipToS) {
             if(!Utils.userConfirmation("Do you accept the Terms of Service?\n\n" + tos)) {
                 throw new AcmeException("User didn't accept ToS");
             }
         }
 
-        Account account = new AccountBuilder()
+        Account account = caller.callMultiple("Registering account", () -> new AccountBuilder()
                 .agreeToTermsOfService()
                 .useKeyPair(accountKey)
-                .create(session);
+                .create(session));
         LOG.debug("Registered a new user, URL: " + account.getLocation());
+        ca.setAccountUrl(account.getLocation());
 
         return account;
     }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.HookConfig;
+import com.kantenkugel.acmeclient.config.SiteConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.kantenkugel.acmeclient.AcmeClient.LOG;
+
+/**
+ * Runs the {@link HookConfig hooks} after certificates were issued.
+ * <p>
+ * Hooks are grouped by target and only run once for all certificates issued until then.
+ * Without debouncing (a single run), they run on {@link #flush()}.
+ * With debouncing (the server), every issued certificate (re)starts the debounce timer of its targets
+ * and the hooks of a target run once the timer ran out.
+ * Different targets run in parallel.
+ * <p>
+ * The hooks get information about the certificates via environment variables:
+ * <ul>
+ *     <li>{@code ACME_TARGET}: the target of the hook</li>
+ *     <li>{@code ACME_CERT_COUNT}: amount of certificates issued</li>
+ *     <li>{@code ACME_CERT_FILES}, {@code ACME_KEY_FILES}: certificate and key files, separated by the path separator</li>
+ *     <li>{@code ACME_DOMAINS}: all domains of the certificates, separated by spaces
+ *     (left out if too long for the environment)</li>
+ *     <li>{@code ACME_EXPIRY}: the earliest expiry of the certificates in ISO-8601 format</li>
+ * </ul>
+ */
+class HookDispatcher {
+    // Linux limits single environment variables to 128KiB
+    private static final int MAX_ENV_LENGTH = 64 * 1024;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "HookScheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "HookRunner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final boolean debounce;
+    private final Map<String, PendingTarget> pending = new HashMap<>();
+    private final List<CompletableFuture<Void>> running = new ArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * @param debounce
+     *            Whether to run hooks once their debounce timer ran out,
+     *            or only on {@link #flush()}
+     */
+    HookDispatcher(boolean debounce) {
+        this.debounce = debounce;
+    }
+
+    /**
+     * Notifies the hooks of the given config about an issued certificate.
+     *
+     * @param config
+     *            The config the certificate was issued for (as returned by {@link IssuancePlan})
+     * @param expiry
+     *            The expiry of the issued certificate
+     */
+    synchronized void certificateIssued(Config config, Date expiry) {
+        Map<String, List<HookConfig>> byTarget = config.getHooks().stream()
+                .collect(Collectors.groupingBy(HookConfig::getTarget, LinkedHashMap::new, Collectors.toList()));
+        byTarget.forEach((target, hooks) -> {
+            PendingTarget pendingTarget = pending.computeIfAbsent(target, PendingTarget::new);
+            hooks.forEach(hook -> {
+                if(pendingTarget.hooks.stream().noneMatch(h -> h.getCommand().equals(hook.getCommand())))
+                    pendingTarget.hooks.add(hook);
+            });
+            pendingTarget.configs.add(config);
+            if(expiry != null && (pendingTarget.expiry == null || expiry.before(pendingTarget.expiry)))
+                pendingTarget.expiry = expiry;
+
+            if(!debounce)
+                return;
+            if(pendingTarget.timer != null)
+                pendingTarget.timer.cancel(false);
+            int seconds = pendingTarget.hooks.stream().mapToInt(HookConfig::getDebounceSeconds).max().orElse(0);
+            pendingTarget.timer = scheduler.schedule(() -> fire(target), seconds, TimeUnit.SECONDS);
+        });
+    }
+
+    /**
+     * Runs all pending hooks without waiting for their debounce timers and waits until all hooks are done.
+     *
+     * @return The amount of hooks that failed since the last flush
+     */
+    int flush() {
+        List<CompletableFuture<Void>> toWait;
+        synchronized(this) {
+            new ArrayList<>(pending.keySet()).forEach(this::fire);
+            toWait = new ArrayList<>(running);
+            running.clear();
+        }
+        CompletableFuture.allOf(toWait.toArray(new CompletableFuture<?>[0])).join();
+        return failures.getAndSet(0);
+    }
+
+    private synchronized void fire(String target) {
+        PendingTarget pendingTarget = pending.remove(target);
+        if(pendingTarget == null)
+            return;
+        if(pendingTarget.timer != null)
+            pendingTarget.timer.cancel(false);
+
+        Map<String, String> environment = pendingTarget.getEnvironment();
+        running.add(CompletableFuture.runAsync(() -> {
+            // Hooks of the same target run sequentially, eg. to not reload the same server concurrently
+            for(HookConfig hook : pendingTarget.hooks) {
+                long start = System.nanoTime();
+                try {
+                    Utils.runCommand(hook.getCommandLine(), environment, hook.getTimeoutSeconds());
+                    LOG.info("Hook {} for target {} ({} certificates) finished after {}ms", hook.getCommand(), target,
+                            pendingTarget.configs.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                } catch(IOException ex) {
+                    failures.incrementAndGet();
+                    LOG.error("Hook {} for target {} failed: {}", hook.getCommand(), target, ex.getMessage());
+                }
+            }
+        }, executor));
+    }
+
+    private static class PendingTarget {
+        private final String target;
+        private final List<HookConfig> hooks = new ArrayList<>();
+        private final List<Config> configs = new ArrayList<>();
+        private Date expiry;
+        private ScheduledFuture<?> timer;
+
+        private PendingTarget(String target) {
+            this.target = target;
+        }
+
+        private Map<String, String> getEnvironment() {
+            Map<String, String> environment = new HashMap<>();
+            environment.put("ACME_TARGET", target);
+            environment.put("ACME_CERT_COUNT", String.valueOf(configs.size()));
+            environment.put("ACME_CERT_FILES", configs.stream()
+                    .map(config -> config.getCertFile().getAbsolutePath())
+                    .collect(Collectors.joining(File.pathSeparator)));
+            environment.put("ACME_KEY_FILES", configs.stream()
+                    .map(config -> config.getKeyFile().getAbsolutePath())
+                    .distinct()
+                    .collect(Collectors.joining(File.pathSeparator)));
+            String domains = configs.stream()
+                    .flatMap(config -> config.getSiteConfigs().stream())
+                    .map(SiteConfig::getDomain)
+                    .collect(Collectors.joining(" "));
+            if(domains.length() <= MAX_ENV_LENGTH)
+                environment.put("ACME_DOMAINS", domains);
+            if(expiry != null)
+                environment.put("ACME_EXPIRY", expiry.toInstant().toString());
+            return environment;
+        }
+    }
+}
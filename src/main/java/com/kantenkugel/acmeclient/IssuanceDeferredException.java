@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import org.shredzone.acme4j.exception.AcmeException;
+
+import java.time.Instant;
+
+/**
+ * Thrown if certificates were not ordered because doing so would exceed the rate limits of the CA.
+ * Unlike other failures, the issuance should simply be retried after {@link #getRetryAt()}.
+ */
+public class IssuanceDeferredException extends AcmeException {
+    private static final long serialVersionUID = 1L;
+
+    private final Instant retryAt;
+
+    public IssuanceDeferredException(String message, Instant retryAt) {
+        super(message);
+        this.retryAt = retryAt;
+    }
+
+    /**
+     * Returns the earliest point in time the deferred certificates can be ordered at.
+     */
+    public Instant getRetryAt() {
+        return retryAt;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.SiteConfig;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class IssuancePlan {
+    // Maximum amount of domains the CA accepts in a single certificate
+    static final int MAX_DOMAINS_PER_CERT = 100;
+
+    /**
+     * Splits the sites of the given {@link Config} into the certificates that have to be ordered.
+     * <p>
+     * If all sites fit into a single certificate, the config itself is returned.
+     * Otherwise the sites are split (in declaration order) into parts of at most {@link #MAX_DOMAINS_PER_CERT} domains,
+     * with the certificate files of part {@code n} being named like {@code site-n.crt}.
+     * All parts share the same domain key.
+     * Since the order of the sites is stored in the config file, renewals result in the same split.
+     *
+     * @param config
+     *            The config to plan the certificates for
+     * @return One {@link Config} per certificate to order
+     */
+    static List<Config> plan(Config config) {
+        List<SiteConfig> sites = config.getSiteConfigs();
+        if(sites.size() <= MAX_DOMAINS_PER_CERT)
+            return Collections.singletonList(config);
+
+        List<Config> parts = new ArrayList<>();
+        for(int start = 0, part = 1; start < sites.size(); start += MAX_DOMAINS_PER_CERT, part++) {
+            List<SiteConfig> partSites = sites.subList(start, Math.min(start + MAX_DOMAINS_PER_CERT, sites.size()));
+            parts.add(new Config(partSites, config.getKeyFile(), numbered(config.getCertFile(), part),
+                    numbered(config.getLeafFile(), part), numbered(config.getChainFile(), part),
+                    config.getChainPreference(), config.getHooks(), config.getExpiry()));
+        }
+        return parts;
+    }
+
+    private static File numbered(File file, int part) {
+        if(file == null)
+            return null;
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        name = extension > 0
+                ? name.substring(0, extension) + '-' + part + name.substring(extension)
+                : name + '-' + part;
+        return new File(file.getParentFile(), name);
+    }
+}
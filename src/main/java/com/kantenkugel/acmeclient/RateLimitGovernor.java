@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.kantenkugel.acmeclient.config.CaConfig;
+import com.kantenkugel.acmeclient.config.RateLimit;
+import com.kantenkugel.acmeclient.config.RateLimits;
+import com.kantenkugel.acmeclient.config.TokenBucket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.kantenkugel.acmeclient.AcmeClient.LOG;
+
+/**
+ * Keeps track of the {@link RateLimits rate limits} of the CAs with persisted token buckets,
+ * so a misbehaving deployment (eg. repeatedly registering) can't get the account or domains locked out.
+ * <p>
+ * Every order has to be acquired via {@link #tryAcquireOrder(CaConfig, Collection)} before it is created.
+ */
+class RateLimitGovernor {
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final File file;
+    private final Map<String, TokenBucket> buckets;
+    private final Clock clock;
+
+    private RateLimitGovernor(File file, Map<String, TokenBucket> buckets, Clock clock) {
+        this.file = file;
+        this.buckets = buckets;
+        this.clock = clock;
+    }
+
+    /**
+     * Loads the buckets from the given file, starting with full buckets if it doesn't exist.
+     */
+    static RateLimitGovernor load(File file) throws IOException {
+        return load(file, Clock.systemUTC());
+    }
+
+    static RateLimitGovernor load(File file, Clock clock) throws IOException {
+        Map<String, TokenBucket> buckets = file.exists()
+                ? MAPPER.readValue(file, new TypeReference<TreeMap<String, TokenBucket>>() {})
+                : new TreeMap<>();
+        return new RateLimitGovernor(file, buckets, clock);
+    }
+
+    /**
+     * Checks all limits affecting an order of the given domains and takes a token of each if none of them is exceeded.
+     * Failed validations are only checked, they are taken by {@link #recordFailedValidation(CaConfig, String)}.
+     *
+     * @param ca
+     *            The CA the order will be created at
+     * @param domains
+     *            The domains of the order
+     * @return {@code null} if the order may be created, otherwise the point in time it may be retried at
+     */
+    synchronized Instant tryAcquireOrder(CaConfig ca, Collection<String> domains) {
+        Instant now = clock.instant();
+        List<TokenBucket> taken = new ArrayList<>();
+        taken.add(getBucket(ca, Limit.NEW_ORDERS, null, now));
+        for(String registeredDomain : domains.stream().map(RateLimitGovernor::getRegisteredDomain).collect(Collectors.toSet()))
+            taken.add(getBucket(ca, Limit.CERTIFICATES, registeredDomain, now));
+        taken.add(getBucket(ca, Limit.DUPLICATES, hash(domains), now));
+        taken.removeIf(Objects::isNull);
+        List<TokenBucket> checked = new ArrayList<>(taken);
+        for(String domain : domains)
+            checked.add(getBucket(ca, Limit.FAILED_VALIDATIONS, domain, now));
+        checked.removeIf(Objects::isNull);
+
+        Duration wait = Duration.ZERO;
+        for(TokenBucket bucket : checked) {
+            Duration until = bucket.untilAvailable();
+            if(until.compareTo(wait) > 0)
+                wait = until;
+        }
+        if(!wait.isZero())
+            return now.plus(wait);
+
+        taken.forEach(TokenBucket::take);
+        return null;
+    }
+
+    /**
+     * Takes a token of the failed validations of the given domain.
+     */
+    synchronized void recordFailedValidation(CaConfig ca, String domain) {
+        TokenBucket bucket = getBucket(ca, Limit.FAILED_VALIDATIONS, domain, clock.instant());
+        if(bucket != null)
+            bucket.take();
+    }
+
+    /**
+     * Writes the buckets back to the file. Full buckets are left out, as they carry no information.
+     */
+    synchronized void store() throws IOException {
+        Instant now = clock.instant();
+        buckets.values().removeIf(bucket -> {
+            bucket.refill(now);
+            return bucket.isFull();
+        });
+        Utils.writeAtomically(file, false, writer -> MAPPER.writeValue(writer, buckets));
+    }
+
+    /**
+     * Returns the refilled bucket of the given limit and subject.
+     *
+     * @return The bucket, or {@code null} if the CA doesn't enforce the limit
+     */
+    private TokenBucket getBucket(CaConfig ca, Limit limit, String subject, Instant now) {
+        RateLimit rateLimit = limit.getter.apply(ca.getRateLimits());
+        if(rateLimit == null)
+            return null;
+        String key = subject == null
+                ? limit.name + ':' + ca.getName()
+                : limit.name + ':' + ca.getName() + ':' + subject;
+        TokenBucket bucket = buckets.computeIfAbsent(key, k -> TokenBucket.full(rateLimit, now));
+        bucket.setLimit(rateLimit);
+        bucket.refill(now);
+        if(!bucket.isAvailable())
+            LOG.warn("Rate limit {} is exhausted for {}", key, bucket.untilAvailable());
+        return bucket;
+    }
+
+    /**
+     * Approximates the registered domain by its last two labels.
+     * For domains below public suffixes like {@code co.uk} this groups more domains together than the CA does,
+     * which only makes the limit stricter.
+     */
+    static String getRegisteredDomain(String domain) {
+        if(domain.startsWith("*."))
+            domain = domain.substring(2);
+        int last = domain.lastIndexOf('.');
+        int secondLast = last > 0 ? domain.lastIndexOf('.', last - 1) : -1;
+        return secondLast < 0 ? domain : domain.substring(secondLast + 1);
+    }
+
+    /**
+     * Identifies a set of domains independent of their order, without storing potentially hundreds of domains.
+     */
+    private static String hash(Collection<String> domains) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(String.join(",", new TreeSet<>(domains)).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0; i < 16; i++)
+                sb.append(String.format("%02x", hash[i]));
+            return sb.toString();
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported", ex);
+        }
+    }
+
+    private enum Limit {
+        NEW_ORDERS("orders", RateLimits::getNewOrders),
+        CERTIFICATES("certificates", RateLimits::getCertificatesPerDomain),
+        FAILED_VALIDATIONS("failedValidations", RateLimits::getFailedValidations),
+        DUPLICATES("duplicates", RateLimits::getDuplicateCertificates);
+
+        private final String name;
+        private final Function<RateLimits, RateLimit> getter;
+
+        Limit(String name, Function<RateLimits, RateLimit> getter) {
+            this.name = name;
+            this.getter = getter;
+        }
+    }
+}
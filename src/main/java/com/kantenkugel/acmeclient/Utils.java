@@ -16,6 +16,7 @@
 
 package com.kantenkugel.acmeclient;
 
+import com.kantenkugel.acmeclient.config.ChallengeTarget;
 import com.kantenkugel.acmeclient.config.SiteConfig;
 import org.shredzone.acme4j.Authorization;
 import org.shredzone.acme4j.Status;
@@ -23,27 +24,42 @@ import org.shredzone.acme4j.challenge.Http01Challenge;
 import org.shredzone.acme4j.exception.AcmeException;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 import static com.kantenkugel.acmeclient.AcmeClient.LOG;
 
 class Utils {
-    private static final String CHALLANGE_DIR = "./.well-known/acme-challenge/";
-
     /**
      * Authorize a domain. It will be associated with your account, so you will be able to
      * retrieve a signed certificate for the domain later.
      *
      * @param auth
      *            {@link Authorization} to perform
+     * @param config
+     *            {@link SiteConfig} of the domain to authorize
+     * @param caller
+     *            {@link AcmeCaller} used to call the CA
+     * @param limits
+     *            {@link RateLimitGovernor} failed validations are recorded in
      */
-    static void authorize(Authorization auth, SiteConfig config) throws AcmeException {
-        LOG.info("Authorization for domain " + auth.getDomain());
+    static void authorize(Authorization auth, SiteConfig config, AcmeCaller caller,
+                          RateLimitGovernor limits) throws AcmeException {
+        LOG.info("Authorization for domain " + auth.getIdentifier().getDomain());
 
         // The authorization is already valid. No need to process a challenge.
-        if (auth.getStatus() == Status.VALID) {
+        if (caller.call("Fetching authorization", auth::getStatus) == Status.VALID) {
             return;
         }
 
@@ -60,53 +76,112 @@ class Utils {
 
         LOG.info("Creating challenge files...");
 
-        File challengeDir = new File(config.getStaticsDir(), CHALLANGE_DIR);
-        if(!challengeDir.exists() && !challengeDir.mkdirs())
-            throw new AcmeException("Could not create challenge directory " + challengeDir.getAbsolutePath());
-
-        File challengeFile = new File(challengeDir, challenge.getToken());
-
-        try(FileWriter fw = new FileWriter(challengeFile)) {
-            fw.write(challenge.getAuthorization());
-        } catch(IOException ex) {
-            throw new AcmeException("Could not create challenge token file", ex);
-        }
+        // Only trigger the challenge once the token is reachable on every target
+        List<ChallengeTarget> targets = config.getChallengeTargets();
+        ChallengePublisher.publish(targets, challenge.getToken(), challenge.getAuthorization());
 
-        // Now trigger the challenge.
-        challenge.trigger();
+        try {
+            // Now trigger the challenge.
+            caller.run("Triggering challenge", challenge::trigger);
 
-        LOG.info("Waiting for challenge confirmation");
+            LOG.info("Waiting for challenge confirmation");
 
-        // Poll for the challenge to complete.
-        try {
+            // Poll for the challenge to complete.
             int attempts = 10;
-            while (challenge.getStatus() != Status.VALID && attempts-- > 0) {
-                // Did the authorization fail?
-                if (challenge.getStatus() == Status.INVALID) {
-                    throw new AcmeException("Challenge failed... Giving up.");
-                }
-
+            while (challenge.getStatus() != Status.VALID && challenge.getStatus() != Status.INVALID && attempts-- > 0) {
                 // Wait for a few seconds
                 Thread.sleep(3000L);
 
                 // Then update the status
-                challenge.update();
+                caller.run("Updating challenge", challenge::update);
             }
         } catch (InterruptedException ex) {
             LOG.error("interrupted", ex);
             Thread.currentThread().interrupt();
+        } finally {
+            LOG.info("Cleaning up challenge files");
+            ChallengePublisher.cleanup(targets, challenge.getToken());
         }
 
-        LOG.info("Cleaning up challenge files");
-        challengeFile.delete();
-        challengeDir.delete();
-        challengeDir.getParentFile().delete();
+        // Did the authorization fail? This is also checked after the last update
+        if (challenge.getStatus() == Status.INVALID) {
+            limits.recordFailedValidation(caller.getCa(), auth.getIdentifier().getDomain());
+            throw new AcmeException("Challenge failed... Giving up.");
+        }
 
         // All reattempts are used up and there is still no valid authorization?
         if (challenge.getStatus() != Status.VALID) {
             throw new AcmeException("Failed to pass the challenge for domain "
-                    + auth.getDomain() + ", ... Giving up.");
+                    + auth.getIdentifier().getDomain() + ", ... Giving up.");
+        }
+    }
+
+    /**
+     * Writes a file by first writing a temporary file next to it and then renaming it,
+     * so readers (eg. a reloading web server) never see a partially written file.
+     *
+     * @param file
+     *            The file to write
+     * @param secret
+     *            Whether or not the file contains a private key and should only be readable by the owner
+     * @param content
+     *            Writes the content of the file
+     */
+    static void writeAtomically(File file, boolean secret, FileContent content) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Path tmp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            try(Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                content.write(writer);
+            }
+            // Temp files are only readable by the owner, certificates have to be readable by the web server
+            PosixFileAttributeView view = Files.getFileAttributeView(tmp, PosixFileAttributeView.class);
+            if(!secret && view != null)
+                view.setPermissions(PosixFilePermissions.fromString("rw-r--r--"));
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch(AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Runs a local command and waits for it to finish. Its output is passed through.
+     *
+     * @param command
+     *            The command and its arguments
+     * @param environment
+     *            Additional environment variables for the command
+     * @param timeoutSeconds
+     *            Time after which the command is killed
+     * @throws IOException
+     *             If the command could not be started, timed out or exited with a non-zero code
+     */
+    static void runCommand(List<String> command, Map<String, String> environment, long timeoutSeconds) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        builder.environment().putAll(environment);
+        Process process = builder.start();
+        try {
+            if(!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("Command timed out after " + timeoutSeconds + " seconds");
+            }
+        } catch(InterruptedException ex) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for command", ex);
         }
+        if(process.exitValue() != 0)
+            throw new IOException("Command exited with code " + process.exitValue());
+    }
+
+    interface FileContent {
+        void write(Writer writer) throws IOException;
     }
 
     private static final Scanner sc = new Scanner(System.in);
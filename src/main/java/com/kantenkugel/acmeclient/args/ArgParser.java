@@ -16,37 +16,47 @@
 
 package com.kantenkugel.acmeclient.args;
 
+import com.kantenkugel.acmeclient.config.ChainPreference;
+import com.kantenkugel.acmeclient.config.ChallengeTarget;
+import com.kantenkugel.acmeclient.config.HookConfig;
 import com.kantenkugel.acmeclient.config.SiteConfig;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ArgParser {
-    private static final Logger LOG = LoggerFactory.getLogger(ArgParser.class);
-
     private StringBuilder stringCollector = new StringBuilder();
-    private File webroot, keyFile, certFile;
-    private List<SiteConfig> sites;
+    private File webroot, keyFile, certFile, leafFile, chainFile;
+    // Whether the last declared webroot was invalid, to not report every domain declared for it
+    private boolean invalidWebroot;
+    private String preferredIssuer;
+    private List<ChallengeTarget> targets;
+    private List<HookConfig> hooks;
+    private Map<String, SiteConfig> sites;
+    private List<String> errors;
 
     public Args parse(String[] args) {
         reset();
 
         boolean override = false;
         boolean quiet = false;
+        boolean shortestChain = false;
         TokenMode mode = TokenMode.NONE;
 
         for(int i=1; i < args.length; i++) {
             switch(args[i].toLowerCase()) {
                 case "--override":
                     handleLastMode(mode);
+                    mode = TokenMode.NONE;
                     override = true;
                     break;
                 case "-q":
                 case "--quiet":
                     handleLastMode(mode);
+                    mode = TokenMode.NONE;
                     quiet = true;
                     break;
                 case "-k":
@@ -59,45 +69,109 @@ public class ArgParser {
                     handleLastMode(mode);
                     mode = TokenMode.CERT_FILE;
                     break;
+                case "--leaf":
+                    handleLastMode(mode);
+                    mode = TokenMode.LEAF_FILE;
+                    break;
+                case "--chain":
+                    handleLastMode(mode);
+                    mode = TokenMode.CHAIN_FILE;
+                    break;
+                case "--preferred-issuer":
+                    handleLastMode(mode);
+                    mode = TokenMode.PREFERRED_ISSUER;
+                    break;
+                case "--shortest-chain":
+                    handleLastMode(mode);
+                    mode = TokenMode.NONE;
+                    shortestChain = true;
+                    break;
+                case "--hook":
+                    handleLastMode(mode);
+                    mode = TokenMode.HOOK;
+                    break;
                 case "-w":
                 case "--webroot":
                     handleLastMode(mode);
                     mode = TokenMode.WEBROOT;
                     break;
+                case "-t":
+                case "--target":
+                    handleLastMode(mode);
+                    mode = TokenMode.TARGET;
+                    break;
                 case "-d":
                 case "--domain":
                     handleLastMode(mode);
                     mode = TokenMode.DOMAIN;
                     break;
+                case "--from":
+                    handleLastMode(mode);
+                    mode = TokenMode.MANIFEST;
+                    break;
                 default:
                     switch(mode) {
                         case NONE:
-                            LOG.error("Invalid syntax. run with only register argument for usage example.");
-                            System.exit(1);
+                            errors.add("Unexpected argument " + args[i] + ". Run with only register argument for usage example.");
                             break;
                         case WEBROOT:
                         case DOMAIN:
                         case KEY_FILE:
                         case CERT_FILE:
+                        case LEAF_FILE:
+                        case CHAIN_FILE:
+                        case PREFERRED_ISSUER:
+                        case MANIFEST:
+                        case TARGET:
+                        case HOOK:
                             stringCollector.append(' ').append(args[i]);
                             break;
                     }
             }
         }
         handleLastMode(mode);
-        return new Args(override, quiet, sites, keyFile, certFile);
+        return new Args(override, quiet, new ArrayList<>(sites.values()), errors, keyFile, certFile, leafFile, chainFile,
+                new ChainPreference(preferredIssuer, shortestChain), hooks);
     }
 
     private void reset() {
-        sites = new ArrayList<>();
+        sites = new LinkedHashMap<>();
+        errors = new ArrayList<>();
         stringCollector.setLength(0);
-        webroot = keyFile = certFile = null;
+        webroot = keyFile = certFile = leafFile = chainFile = null;
+        invalidWebroot = false;
+        preferredIssuer = null;
+        targets = new ArrayList<>();
+        hooks = new ArrayList<>();
     }
 
     private void handleLastMode(TokenMode mode) {
         switch(mode) {
             case WEBROOT:
                 webroot = parsePath("webroot", false);
+                invalidWebroot = webroot == null;
+                targets = new ArrayList<>();
+                break;
+            case TARGET:
+                String rawTarget = getString("target");
+                if(rawTarget == null)
+                    break;
+                ChallengeTarget target;
+                try {
+                    target = ChallengeTarget.parse(rawTarget);
+                } catch(IllegalArgumentException ex) {
+                    errors.add(ex.getMessage());
+                    break;
+                }
+                if(target.getWebroot() != null && !target.getWebroot().isDirectory()) {
+                    errors.add("Target " + target.getWebroot().getPath() + " does not exist or is not a directory");
+                    break;
+                }
+                if(target.getCommand() != null && target.getCommand().isEmpty()) {
+                    errors.add("Target command must not be empty");
+                    break;
+                }
+                targets.add(target);
                 break;
             case KEY_FILE:
                 keyFile = parsePath("keyFile", true, false);
@@ -105,22 +179,82 @@ public class ArgParser {
             case CERT_FILE:
                 certFile = parsePath("certFile", true, false);
             break;
+            case LEAF_FILE:
+                leafFile = parsePath("leafFile", true, false);
+                break;
+            case CHAIN_FILE:
+                chainFile = parsePath("chainFile", true, false);
+                break;
+            case PREFERRED_ISSUER:
+                preferredIssuer = getString("preferredIssuer");
+                break;
+            case HOOK:
+                String hook = getString("hook");
+                if(hook == null)
+                    break;
+                try {
+                    hooks.add(HookConfig.parse(hook));
+                } catch(IllegalArgumentException ex) {
+                    errors.add(ex.getMessage());
+                }
+                break;
             case DOMAIN:
+                String rawDomain = getString("domain");
+                if(rawDomain == null)
+                    break;
                 if(webroot == null) {
-                    LOG.error("You must first declare a webroot before being able to define domains");
-                    System.exit(1);
+                    if(!invalidWebroot)
+                        errors.add("Domain " + rawDomain + " was declared before any webroot");
+                    break;
                 }
-                sites.add(new SiteConfig(getString("domain"), webroot));
-            break;
+                String error = addSite(sites, rawDomain, webroot, new ArrayList<>(targets));
+                if(error != null)
+                    errors.add(error);
+                break;
+            case MANIFEST:
+                File manifest = parsePath("manifest", true);
+                if(manifest != null)
+                    new ManifestReader(sites, errors).read(manifest, webroot, targets);
+                break;
             case NONE:
                 break;
         }
     }
 
+    /**
+     * Normalizes the domain and adds its site, unless it was already declared.
+     *
+     * @param sites
+     *            Map of normalized domain to site
+     * @param rawDomain
+     *            The domain as declared
+     * @param webroot
+     *            The webroot of the site
+     * @param targets
+     *            Additional challenge targets of the site
+     * @return {@code null} if the site was added or already declared with the same webroot, otherwise the problem
+     */
+    static String addSite(Map<String, SiteConfig> sites, String rawDomain, File webroot, List<ChallengeTarget> targets) {
+        String domain = SiteConfig.normalizeDomain(rawDomain);
+        if(domain == null)
+            return "Invalid domain " + rawDomain;
+        SiteConfig existing = sites.get(domain);
+        if(existing == null) {
+            sites.put(domain, new SiteConfig(domain, webroot, targets));
+            return null;
+        }
+        if(!existing.getStaticsDir().equals(webroot))
+            return "Domain " + domain + " was already declared with webroot " + existing.getStaticsDir().getPath();
+        return null;
+    }
+
+    /**
+     * @return The collected input, or {@code null} if there was none
+     */
     private String getString(String modeName) {
         if(stringCollector.length() == 0) {
-            LOG.error("Flag {} requires additional input", modeName);
-            System.exit(1);
+            errors.add("Flag " + modeName + " requires additional input");
+            return null;
         }
         String out = stringCollector.substring(1);
         stringCollector.setLength(0);
@@ -131,16 +265,22 @@ public class ArgParser {
         return parsePath(modeName, isFile, true);
     }
 
+    /**
+     * @return The path, or {@code null} if it was missing or (if required) does not exist
+     */
     private File parsePath(String modeName, boolean isFile, boolean isRequired) {
-        File tmp = new File(getString(modeName));
+        String path = getString(modeName);
+        if(path == null)
+            return null;
+        File tmp = new File(path);
         if(isRequired && (!tmp.exists() || (isFile && !tmp.isFile()) || (!isFile && !tmp.isDirectory()))) {
-            LOG.error("File/Folder {} does not exist or is of wrong type!", tmp.getPath());
-            System.exit(1);
+            errors.add("File/Folder " + tmp.getPath() + " does not exist or is of wrong type");
+            return null;
         }
         return tmp;
     }
 
     private enum TokenMode {
-        NONE, WEBROOT, DOMAIN, KEY_FILE, CERT_FILE
+        NONE, WEBROOT, DOMAIN, KEY_FILE, CERT_FILE, LEAF_FILE, CHAIN_FILE, PREFERRED_ISSUER, MANIFEST, TARGET, HOOK
     }
 }
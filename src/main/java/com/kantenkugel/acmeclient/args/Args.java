@@ -16,7 +16,9 @@
 
 package com.kantenkugel.acmeclient.args;
 
+import com.kantenkugel.acmeclient.config.ChainPreference;
 import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.HookConfig;
 import com.kantenkugel.acmeclient.config.SiteConfig;
 
 import java.io.File;
@@ -26,19 +28,30 @@ public class Args {
     private boolean override;
     private boolean quiet;
     private List<SiteConfig> siteConfigs;
+    private List<String> errors;
     private File keyFile;
     private File certFile;
+    private File leafFile;
+    private File chainFile;
+    private ChainPreference chainPreference;
+    private List<HookConfig> hooks;
 
-    Args(boolean override, boolean quiet, List<SiteConfig> siteConfigs, File keyFile, File certFile) {
+    Args(boolean override, boolean quiet, List<SiteConfig> siteConfigs, List<String> errors, File keyFile, File certFile,
+         File leafFile, File chainFile, ChainPreference chainPreference, List<HookConfig> hooks) {
         this.override = override;
         this.quiet = quiet;
         this.siteConfigs = siteConfigs;
+        this.errors = errors;
         this.keyFile = keyFile == null ? Config.DEFAULT_KEY_FILE : keyFile;
         this.certFile = certFile == null ? Config.DEFAULT_CERT_FILE : certFile;
+        this.leafFile = leafFile;
+        this.chainFile = chainFile;
+        this.chainPreference = chainPreference;
+        this.hooks = hooks;
     }
 
     public Config getConfig() {
-        return new Config(siteConfigs, keyFile, certFile, null);
+        return new Config(siteConfigs, keyFile, certFile, leafFile, chainFile, chainPreference, hooks, null);
     }
 
     public boolean isQuiet() {
@@ -53,6 +66,14 @@ public class Args {
         return siteConfigs;
     }
 
+    /**
+     * Returns all problems found in the site declarations (eg. invalid lines of a manifest).
+     * If this is not empty, the sites should not be used.
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
     public File getKeyFile() {
         return keyFile;
     }
@@ -60,4 +81,20 @@ public class Args {
     public File getCertFile() {
         return certFile;
     }
+
+    public File getLeafFile() {
+        return leafFile;
+    }
+
+    public File getChainFile() {
+        return chainFile;
+    }
+
+    public ChainPreference getChainPreference() {
+        return chainPreference;
+    }
+
+    public List<HookConfig> getHooks() {
+        return hooks;
+    }
 }
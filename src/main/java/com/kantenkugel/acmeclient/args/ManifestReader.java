@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.args;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kantenkugel.acmeclient.config.ChallengeTarget;
+import com.kantenkugel.acmeclient.config.SiteConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads sites from a manifest file in a single pass.
+ * <p>
+ * Supported are CSV files with lines in the form {@code domain[,webroot[,target...]]}
+ * and JSON-lines files with lines in the form {@code {"domain": "...", "webroot": "...", "targets": ["..."]}}.
+ * Targets are declared like in {@link ChallengeTarget#parse(String)}.
+ * Empty lines and lines starting with {@code #} are ignored, as is a CSV header line starting with {@code domain}.
+ * <p>
+ * Domains are normalized (lower-cased, converted to punycode, trailing dot removed) and deduplicated.
+ * Instead of aborting on the first invalid line, all problems are collected in the given error list.
+ */
+class ManifestReader {
+    private static final Logger LOG = LoggerFactory.getLogger(ManifestReader.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Map<String, File> webrootCache = new HashMap<>();
+    private final Map<String, SiteConfig> sites;
+    private final List<String> errors;
+
+    /**
+     * @param sites
+     *            Map of normalized domain to site, which already contains all sites declared so far.
+     *            New sites are added to it
+     * @param errors
+     *            List that all encountered problems are added to
+     */
+    ManifestReader(Map<String, SiteConfig> sites, List<String> errors) {
+        this.sites = sites;
+        this.errors = errors;
+    }
+
+    /**
+     * Reads the given manifest.
+     *
+     * @param manifest
+     *            The manifest file to read
+     * @param defaultWebroot
+     *            Webroot to use for entries not defining one, or {@code null} if every entry has to define one
+     * @param defaultTargets
+     *            Additional challenge targets to use for entries not defining any
+     */
+    void read(File manifest, File defaultWebroot, List<ChallengeTarget> defaultTargets) {
+        boolean jsonLines = manifest.getName().endsWith(".json") || manifest.getName().endsWith(".jsonl");
+        int lineNumber = 0;
+        int added = 0;
+        boolean firstEntry = true;
+        try(BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                boolean header = firstEntry;
+                firstEntry = false;
+
+                String domain;
+                String webroot;
+                List<String> targets = new ArrayList<>();
+                if(jsonLines || line.startsWith("{")) {
+                    JsonNode node;
+                    try {
+                        node = MAPPER.readTree(line);
+                    } catch(JsonProcessingException ex) {
+                        error(manifest, lineNumber, "Invalid JSON: " + ex.getOriginalMessage());
+                        continue;
+                    }
+                    domain = node.path("domain").asText(null);
+                    webroot = node.path("webroot").asText(null);
+                    node.path("targets").forEach(target -> targets.add(target.asText()));
+                } else {
+                    String[] parts = line.split(",");
+                    domain = parts[0].trim();
+                    webroot = parts.length > 1 ? parts[1].trim() : null;
+                    for(int i = 2; i < parts.length; i++)
+                        targets.add(parts[i].trim());
+                    if(header && domain.equalsIgnoreCase("domain"))
+                        continue;
+                }
+
+                if(add(manifest, lineNumber, domain, webroot, targets, defaultWebroot, defaultTargets))
+                    added++;
+            }
+        } catch(IOException ex) {
+            errors.add("Could not read manifest " + manifest.getPath() + ": " + ex.getMessage());
+        }
+        LOG.info("Read {} sites from {} lines of manifest {}", added, lineNumber, manifest.getPath());
+    }
+
+    private boolean add(File manifest, int lineNumber, String rawDomain, String rawWebroot, List<String> rawTargets,
+                        File defaultWebroot, List<ChallengeTarget> defaultTargets) {
+        if(rawDomain == null || rawDomain.isEmpty()) {
+            error(manifest, lineNumber, "Missing domain");
+            return false;
+        }
+
+        File webroot;
+        if(rawWebroot == null || rawWebroot.isEmpty()) {
+            if(defaultWebroot == null) {
+                error(manifest, lineNumber, "Missing webroot for domain " + rawDomain);
+                return false;
+            }
+            webroot = defaultWebroot;
+        } else {
+            webroot = getWebroot(rawWebroot);
+            if(webroot == null) {
+                error(manifest, lineNumber, "Webroot " + rawWebroot + " does not exist or is not a directory");
+                return false;
+            }
+        }
+
+        List<ChallengeTarget> targets = new ArrayList<>();
+        if(rawTargets.isEmpty())
+            targets.addAll(defaultTargets);
+        for(String rawTarget : rawTargets) {
+            if(rawTarget.isEmpty())
+                continue;
+            ChallengeTarget target;
+            try {
+                target = ChallengeTarget.parse(rawTarget);
+            } catch(IllegalArgumentException ex) {
+                error(manifest, lineNumber, ex.getMessage());
+                return false;
+            }
+            if(target.getWebroot() != null && getWebroot(target.getWebroot().getPath()) == null) {
+                error(manifest, lineNumber, "Target " + rawTarget + " does not exist or is not a directory");
+                return false;
+            }
+            if(target.getCommand() != null && target.getCommand().isEmpty()) {
+                error(manifest, lineNumber, "Empty target command for domain " + rawDomain);
+                return false;
+            }
+            targets.add(target);
+        }
+
+        int size = sites.size();
+        String error = ArgParser.addSite(sites, rawDomain, webroot, targets);
+        if(error != null)
+            error(manifest, lineNumber, error);
+        return sites.size() > size;
+    }
+
+    /**
+     * Returns the webroot for the given path, checking the filesystem only once per distinct path.
+     *
+     * @return The webroot, or {@code null} if it doesn't exist
+     */
+    File getWebroot(String path) {
+        if(webrootCache.containsKey(path))
+            return webrootCache.get(path);
+        File dir = new File(path);
+        if(!dir.isDirectory())
+            dir = null;
+        webrootCache.put(path, dir);
+        return dir;
+    }
+
+    private void error(File manifest, int lineNumber, String message) {
+        errors.add(manifest.getPath() + ":" + lineNumber + ": " + message);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.File;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * An ACME CA endpoint together with the account used at it and its remembered health.
+ */
+public class CaConfig {
+    public static final String DEFAULT_NAME = "letsencrypt";
+    public static final String DEFAULT_DIRECTORY = "acme://letsencrypt.org";
+    public static final File DEFAULT_ACCOUNT_KEY_FILE = new File("caAccount.key");
+
+    private static final int DEFAULT_DEADLINE_MINUTES = 10;
+    private static final long DEFAULT_MAX_LATENCY_MILLIS = 5000L;
+    // How long a CA is avoided after it failed
+    private static final Duration FAILURE_COOLDOWN = Duration.ofHours(1);
+    // Weight of the newest measurement in the latency average
+    private static final double LATENCY_WEIGHT = 0.3;
+    // How long a measured latency is used, so a CA demoted for being slow (and thus no longer called) gets tried again
+    private static final Duration LATENCY_MAX_AGE = Duration.ofHours(1);
+
+    private String name;
+    private String directory;
+    private File accountKeyFile;
+    private URL accountUrl;
+    private int deadlineMinutes;
+    private long maxLatencyMillis;
+    private RateLimits rateLimits;
+
+    private long latencyMillis;
+    private Date latencyMeasured;
+    private int consecutiveFailures;
+    private Date lastFailure;
+
+    @JsonCreator
+    public CaConfig(@JsonProperty("name") String name, @JsonProperty("directory") String directory,
+                    @JsonProperty("accountKeyFile") File accountKeyFile, @JsonProperty("accountUrl") URL accountUrl,
+                    @JsonProperty("deadlineMinutes") int deadlineMinutes, @JsonProperty("maxLatencyMillis") long maxLatencyMillis,
+                    @JsonProperty("rateLimits") RateLimits rateLimits,
+                    @JsonProperty("latencyMillis") long latencyMillis, @JsonProperty("latencyMeasured") Date latencyMeasured,
+                    @JsonProperty("consecutiveFailures") int consecutiveFailures, @JsonProperty("lastFailure") Date lastFailure) {
+        if(name == null || directory == null)
+            throw new IllegalArgumentException("A CA needs a name and a directory");
+        this.name = name;
+        this.directory = directory;
+        this.accountKeyFile = accountKeyFile == null ? new File("caAccount-" + name + ".key") : accountKeyFile;
+        this.accountUrl = accountUrl;
+        this.deadlineMinutes = deadlineMinutes <= 0 ? DEFAULT_DEADLINE_MINUTES : deadlineMinutes;
+        this.maxLatencyMillis = maxLatencyMillis <= 0 ? DEFAULT_MAX_LATENCY_MILLIS : maxLatencyMillis;
+        if(rateLimits == null)
+            rateLimits = isLetsEncrypt(directory) ? RateLimits.LETS_ENCRYPT : RateLimits.NONE;
+        this.rateLimits = rateLimits;
+        this.latencyMillis = latencyMillis;
+        this.latencyMeasured = latencyMeasured;
+        this.consecutiveFailures = consecutiveFailures;
+        this.lastFailure = lastFailure;
+    }
+
+    /**
+     * Returns the CA used if no CAs are configured.
+     */
+    public static CaConfig getDefault() {
+        return new CaConfig(DEFAULT_NAME, DEFAULT_DIRECTORY, DEFAULT_ACCOUNT_KEY_FILE, null, 0, 0, null, 0, null, 0, null);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the ACME directory of the CA, either as URL or as acme4j URI (eg. {@code acme://letsencrypt.org/staging}).
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    public File getAccountKeyFile() {
+        return accountKeyFile;
+    }
+
+    /**
+     * Returns the URL of the account at this CA, or {@code null} if it was not registered yet.
+     */
+    public synchronized URL getAccountUrl() {
+        return accountUrl;
+    }
+
+    public synchronized void setAccountUrl(URL accountUrl) {
+        this.accountUrl = accountUrl;
+    }
+
+    /**
+     * Returns the time in minutes a certificate has to be issued in before the next CA is tried.
+     */
+    public int getDeadlineMinutes() {
+        return deadlineMinutes;
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    /**
+     * Returns the rate limits of the CA, which default to the ones of Let's Encrypt for its production directory.
+     */
+    public RateLimits getRateLimits() {
+        return rateLimits;
+    }
+
+    /**
+     * Returns the moving average of the latency of calls to this CA.
+     */
+    public synchronized long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * Returns when the latency was last measured, or {@code null} if it never was.
+     */
+    public synchronized Date getLatencyMeasured() {
+        return latencyMeasured;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized Date getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Whether or not this CA should be used before others.
+     * A CA is considered unhealthy if it failed during the last hour or its average latency measured during the last hour
+     * is too high.
+     */
+    @JsonIgnore
+    public synchronized boolean isHealthy() {
+        boolean recentlyFailed = consecutiveFailures > 0 && lastFailure != null
+                && lastFailure.toInstant().plus(FAILURE_COOLDOWN).isAfter(Instant.now());
+        return !recentlyFailed && (!isLatencyCurrent() || latencyMillis <= maxLatencyMillis);
+    }
+
+    /**
+     * Records a successful call without measured latency.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Records a successful call with the given latency.
+     * If the average is outdated, it is started over instead of being dragged along by old measurements.
+     */
+    public synchronized void recordSuccess(long latency) {
+        latencyMillis = isLatencyCurrent()
+                ? Math.round(LATENCY_WEIGHT * latency + (1 - LATENCY_WEIGHT) * latencyMillis)
+                : latency;
+        latencyMeasured = new Date();
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        lastFailure = new Date();
+    }
+
+    private boolean isLatencyCurrent() {
+        return latencyMeasured != null && latencyMeasured.toInstant().plus(LATENCY_MAX_AGE).isAfter(Instant.now());
+    }
+
+    private static boolean isLetsEncrypt(String directory) {
+        String lowerCase = directory.toLowerCase();
+        return !lowerCase.contains("staging")
+                && (lowerCase.startsWith("acme://letsencrypt.org") || lowerCase.contains("api.letsencrypt.org"));
+    }
+}
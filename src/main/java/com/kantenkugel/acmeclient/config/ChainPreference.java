@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Describes which of the certificate chains offered by the CA (the default one and its alternates) should be used.
+ */
+public class ChainPreference {
+    public static final ChainPreference DEFAULT = new ChainPreference(null, false);
+
+    private String preferredIssuer;
+    private boolean shortest;
+
+    /**
+     * @param preferredIssuer
+     *            Common name of the issuer of the topmost certificate of the wanted chain
+     *            (eg. {@code ISRG Root X1}), or {@code null} to not filter by issuer
+     * @param shortest
+     *            Whether or not the chain with the least certificates (and bytes) should be chosen
+     *            from all (matching) chains
+     */
+    @JsonCreator
+    public ChainPreference(@JsonProperty("preferredIssuer") String preferredIssuer,
+                           @JsonProperty("shortest") boolean shortest) {
+        this.preferredIssuer = preferredIssuer;
+        this.shortest = shortest;
+    }
+
+    public String getPreferredIssuer() {
+        return preferredIssuer;
+    }
+
+    public boolean isShortest() {
+        return shortest;
+    }
+
+    @JsonIgnore
+    public boolean isDefault() {
+        return preferredIssuer == null && !shortest;
+    }
+}
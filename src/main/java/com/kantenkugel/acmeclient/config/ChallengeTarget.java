@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * A place the http-01 challenge tokens of a site are published to.
+ * <p>
+ * This is either a webroot directory (local or a mounted share), in which the token file is created directly,
+ * or a command, which is invoked as {@code <command> publish <token> <file>} to copy the token file
+ * to its destination and as {@code <command> cleanup <token>} to remove it again.
+ * The command is split on whitespace and must not contain quotes.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChallengeTarget {
+    private static final String COMMAND_PREFIX = "cmd:";
+
+    private File webroot;
+    private String command;
+    private List<String> commandLine;
+
+    @JsonCreator
+    public ChallengeTarget(@JsonProperty("webroot") File webroot, @JsonProperty("command") String command) {
+        if((webroot == null) == (command == null))
+            throw new IllegalArgumentException("A challenge target needs either a webroot or a command");
+        this.webroot = webroot;
+        this.command = command;
+        this.commandLine = command == null ? null : Commands.split(command);
+    }
+
+    /**
+     * Parses a target declaration, which is either a path to a webroot
+     * or a command prefixed with {@code cmd:}.
+     *
+     * @throws IllegalArgumentException
+     *             If the command contains quotes
+     */
+    public static ChallengeTarget parse(String declaration) {
+        return declaration.startsWith(COMMAND_PREFIX)
+                ? new ChallengeTarget(null, declaration.substring(COMMAND_PREFIX.length()).trim())
+                : new ChallengeTarget(new File(declaration), null);
+    }
+
+    public File getWebroot() {
+        return webroot;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns the command split into its arguments, or {@code null} if this target is a webroot.
+     */
+    @JsonIgnore
+    public List<String> getCommandLine() {
+        return commandLine;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof ChallengeTarget))
+            return false;
+        ChallengeTarget other = (ChallengeTarget) obj;
+        return webroot == null ? command.equals(other.command) : webroot.equals(other.webroot);
+    }
+
+    @Override
+    public int hashCode() {
+        return webroot == null ? command.hashCode() : webroot.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return webroot == null ? COMMAND_PREFIX + command : webroot.getPath();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits the commands of targets and hooks into their arguments.
+ * <p>
+ * Commands are split on whitespace without any shell quoting, so neither the command nor its arguments can contain spaces.
+ * As quotes would silently become part of the arguments, commands containing them are rejected.
+ */
+final class Commands {
+    private Commands() {}
+
+    /**
+     * @throws IllegalArgumentException
+     *             If the command contains quotes
+     */
+    static List<String> split(String command) {
+        if(command.indexOf('"') >= 0 || command.indexOf('\'') >= 0)
+            throw new IllegalArgumentException("Command " + command + " must not contain quotes. "
+                    + "Arguments are split on whitespace, use a wrapper script for paths or arguments containing spaces");
+        String trimmed = command.trim();
+        return trimmed.isEmpty()
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(Arrays.asList(trimmed.split("\\s+")));
+    }
+}
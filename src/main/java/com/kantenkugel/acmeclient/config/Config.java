@@ -21,6 +21,7 @@ import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -28,7 +29,7 @@ public class Config {
     public static final File DEFAULT_KEY_FILE = new File("site.key");
     public static final File DEFAULT_CERT_FILE = new File("site.crt");
 
-    private static final int CONFIG_VERSION = 2;
+    private static final int CONFIG_VERSION = 3;
 
     private int version;
 
@@ -36,24 +37,44 @@ public class Config {
 
     private File keyFile;
     private File certFile;
+    private File leafFile;
+    private File chainFile;
+
+    private ChainPreference chainPreference;
+    private int chainSize;
+
+    private List<HookConfig> hooks;
 
     private Date expiry;
 
-    public Config(List<SiteConfig> siteConfigs, File keyFile, File certFile, Date expiry) {
+    public Config(List<SiteConfig> siteConfigs, File keyFile, File certFile, File leafFile, File chainFile,
+                  ChainPreference chainPreference, List<HookConfig> hooks, Date expiry) {
         this.version = CONFIG_VERSION;
         this.siteConfigs = siteConfigs;
         this.keyFile = keyFile;
         this.certFile = certFile;
+        this.leafFile = leafFile;
+        this.chainFile = chainFile;
+        this.chainPreference = chainPreference == null ? ChainPreference.DEFAULT : chainPreference;
+        this.hooks = hooks == null ? Collections.emptyList() : hooks;
         this.expiry = expiry;
     }
 
     @JsonCreator
     public Config(@JsonProperty("version") int version, @JsonProperty("siteConfigs") List<SiteConfig> siteConfigs,
-                  @JsonProperty("keyFile") String keyFile, @JsonProperty("certFile") String certFile, @JsonProperty("expiry") Date expiry) {
+                  @JsonProperty("keyFile") String keyFile, @JsonProperty("certFile") String certFile,
+                  @JsonProperty("leafFile") File leafFile, @JsonProperty("chainFile") File chainFile,
+                  @JsonProperty("chainPreference") ChainPreference chainPreference, @JsonProperty("chainSize") int chainSize,
+                  @JsonProperty("hooks") List<HookConfig> hooks, @JsonProperty("expiry") Date expiry) {
         this.version = version == 0 ? 1 : version;
         this.siteConfigs = siteConfigs;
         this.keyFile = keyFile == null ? DEFAULT_KEY_FILE : new File(keyFile);
         this.certFile = certFile == null ? DEFAULT_CERT_FILE : new File(certFile);
+        this.leafFile = leafFile;
+        this.chainFile = chainFile;
+        this.chainPreference = chainPreference == null ? ChainPreference.DEFAULT : chainPreference;
+        this.chainSize = chainSize;
+        this.hooks = hooks == null ? Collections.emptyList() : hooks;
         this.expiry = expiry;
     }
 
@@ -83,6 +104,37 @@ public class Config {
         return certFile;
     }
 
+    public File getLeafFile() {
+        return leafFile;
+    }
+
+    public File getChainFile() {
+        return chainFile;
+    }
+
+    public ChainPreference getChainPreference() {
+        return chainPreference;
+    }
+
+    /**
+     * Size in bytes of the DER-encoded certificate chain (leaf and intermediates) that was last written.
+     * This is roughly what every full TLS handshake has to transmit for the certificate message.
+     */
+    public int getChainSize() {
+        return chainSize;
+    }
+
+    public void setChainSize(int chainSize) {
+        this.chainSize = chainSize;
+    }
+
+    /**
+     * Returns the hooks to run after certificates of this config were issued.
+     */
+    public List<HookConfig> getHooks() {
+        return hooks;
+    }
+
     public Date getExpiry() {
         return expiry;
     }
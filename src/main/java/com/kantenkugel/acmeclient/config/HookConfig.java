@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * A command run after certificates were issued, eg. to reload a web server.
+ * <p>
+ * Hooks are grouped by their target (eg. the server they reload).
+ * All hooks of a target are run once after all certificates of a run were issued,
+ * so renewing many certificates at once only results in a single reload per target.
+ * In the server, where there is no end of a run, they are run after no further certificate
+ * was issued for the debounce time (the longest one of the hooks of the target).
+ * The command is split on whitespace and must not contain quotes.
+ */
+public class HookConfig {
+    private static final int DEFAULT_TIMEOUT_SECONDS = 60;
+    // Longer than issuing a certificate usually takes, so jobs submitted together cause a single reload
+    private static final int DEFAULT_DEBOUNCE_SECONDS = 120;
+
+    private String target;
+    private String command;
+    private List<String> commandLine;
+    private int timeoutSeconds;
+    private int debounceSeconds;
+
+    @JsonCreator
+    public HookConfig(@JsonProperty("target") String target, @JsonProperty("command") String command,
+                      @JsonProperty("timeoutSeconds") int timeoutSeconds, @JsonProperty("debounceSeconds") int debounceSeconds) {
+        if(target == null || command == null || command.trim().isEmpty())
+            throw new IllegalArgumentException("A hook needs a target and a command");
+        this.target = target;
+        this.command = command;
+        this.commandLine = Commands.split(command);
+        this.timeoutSeconds = timeoutSeconds <= 0 ? DEFAULT_TIMEOUT_SECONDS : timeoutSeconds;
+        this.debounceSeconds = debounceSeconds <= 0 ? DEFAULT_DEBOUNCE_SECONDS : debounceSeconds;
+    }
+
+    /**
+     * Parses a hook declaration in the form {@code target=command}.
+     */
+    public static HookConfig parse(String declaration) {
+        int split = declaration.indexOf('=');
+        if(split <= 0)
+            throw new IllegalArgumentException("Hooks have to be declared as target=command");
+        return new HookConfig(declaration.substring(0, split).trim(), declaration.substring(split + 1).trim(),
+                0, 0);
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns the command split into its arguments.
+     */
+    @JsonIgnore
+    public List<String> getCommandLine() {
+        return commandLine;
+    }
+
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    public int getDebounceSeconds() {
+        return debounceSeconds;
+    }
+}
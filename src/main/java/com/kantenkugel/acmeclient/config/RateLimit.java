@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+
+/**
+ * A single rate limit of a CA: at most {@code amount} per {@code periodMinutes}.
+ */
+public class RateLimit {
+    private int amount;
+    private long periodMinutes;
+
+    @JsonCreator
+    public RateLimit(@JsonProperty("amount") int amount, @JsonProperty("periodMinutes") long periodMinutes) {
+        if(amount < 1 || periodMinutes < 1)
+            throw new IllegalArgumentException("A rate limit needs a positive amount and period");
+        this.amount = amount;
+        this.periodMinutes = periodMinutes;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public long getPeriodMinutes() {
+        return periodMinutes;
+    }
+
+    @JsonIgnore
+    public Duration getPeriod() {
+        return Duration.ofMinutes(periodMinutes);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof RateLimit))
+            return false;
+        RateLimit other = (RateLimit) obj;
+        return amount == other.amount && periodMinutes == other.periodMinutes;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * amount + Long.hashCode(periodMinutes);
+    }
+}
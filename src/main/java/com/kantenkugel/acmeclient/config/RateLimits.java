@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The rate limits of a CA. Limits which are {@code null} are not enforced.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RateLimits {
+    /**
+     * The limits published by Let's Encrypt.
+     */
+    public static final RateLimits LETS_ENCRYPT = new RateLimits(new RateLimit(300, 3 * 60),
+            new RateLimit(50, 7 * 24 * 60), new RateLimit(5, 60), new RateLimit(5, 7 * 24 * 60));
+    public static final RateLimits NONE = new RateLimits(null, null, null, null);
+
+    private RateLimit newOrders;
+    private RateLimit certificatesPerDomain;
+    private RateLimit failedValidations;
+    private RateLimit duplicateCertificates;
+
+    /**
+     * @param newOrders
+     *            New orders per account
+     * @param certificatesPerDomain
+     *            Certificates per registered domain
+     * @param failedValidations
+     *            Failed validations per account and hostname
+     * @param duplicateCertificates
+     *            Certificates for the exact same set of domains
+     */
+    @JsonCreator
+    public RateLimits(@JsonProperty("newOrders") RateLimit newOrders,
+                      @JsonProperty("certificatesPerDomain") RateLimit certificatesPerDomain,
+                      @JsonProperty("failedValidations") RateLimit failedValidations,
+                      @JsonProperty("duplicateCertificates") RateLimit duplicateCertificates) {
+        this.newOrders = newOrders;
+        this.certificatesPerDomain = certificatesPerDomain;
+        this.failedValidations = failedValidations;
+        this.duplicateCertificates = duplicateCertificates;
+    }
+
+    public RateLimit getNewOrders() {
+        return newOrders;
+    }
+
+    public RateLimit getCertificatesPerDomain() {
+        return certificatesPerDomain;
+    }
+
+    public RateLimit getFailedValidations() {
+        return failedValidations;
+    }
+
+    public RateLimit getDuplicateCertificates() {
+        return duplicateCertificates;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Settings of the server which can't be chosen by the submitted jobs.
+ */
+public class ServerConfig {
+    public static final File DEFAULT_OUTPUT_DIR = new File("certs");
+    public static final File DEFAULT_TOKEN_FILE = new File("server.token");
+
+    private File outputDir;
+    private File tokenFile;
+    private Map<String, HookConfig> hooks;
+
+    @JsonCreator
+    public ServerConfig(@JsonProperty("outputDir") File outputDir, @JsonProperty("tokenFile") File tokenFile,
+                        @JsonProperty("hooks") Map<String, HookConfig> hooks) {
+        this.outputDir = outputDir == null ? DEFAULT_OUTPUT_DIR : outputDir;
+        this.tokenFile = tokenFile == null ? DEFAULT_TOKEN_FILE : tokenFile;
+        this.hooks = hooks == null ? Collections.emptyMap() : hooks;
+    }
+
+    /**
+     * Returns the config used if no server config exists.
+     */
+    public static ServerConfig getDefault() {
+        return new ServerConfig(null, null, null);
+    }
+
+    /**
+     * Returns the directory all key and certificate files of jobs are confined to.
+     */
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * Returns the file holding the token clients have to authenticate with (created if missing).
+     */
+    public File getTokenFile() {
+        return tokenFile;
+    }
+
+    /**
+     * Returns the hooks jobs can reference by name.
+     */
+    public Map<String, HookConfig> getHooks() {
+        return hooks;
+    }
+}
@@ -17,18 +17,37 @@
 package com.kantenkugel.acmeclient.config;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.File;
+import java.net.IDN;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
 
 public class SiteConfig {
+    private static final Pattern DOMAIN_PATTERN =
+            Pattern.compile("^(?=.{1,253}$)([a-z0-9]([a-z0-9-]{0,61}[a-z0-9])?\\.)+[a-z0-9-]{2,63}$");
+
     private String domain;
     private File staticsDir;
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<ChallengeTarget> targets;
+
+    public SiteConfig(String domain, File staticsDir) {
+        this(domain, staticsDir, null);
+    }
 
     @JsonCreator
-    public SiteConfig(@JsonProperty("domain") String domain, @JsonProperty("staticsDir") File staticsDir) {
+    public SiteConfig(@JsonProperty("domain") String domain, @JsonProperty("staticsDir") File staticsDir,
+                      @JsonProperty("targets") List<ChallengeTarget> targets) {
         this.domain = domain;
         this.staticsDir = staticsDir;
+        this.targets = targets == null ? Collections.emptyList() : targets;
     }
 
     public String getDomain() {
@@ -38,4 +57,39 @@ public class SiteConfig {
     public File getStaticsDir() {
         return staticsDir;
     }
+
+    /**
+     * Returns the targets the challenge tokens are published to in addition to the {@link #getStaticsDir() statics dir}.
+     */
+    public List<ChallengeTarget> getTargets() {
+        return targets;
+    }
+
+    /**
+     * Returns all targets the challenge tokens have to be published to, starting with the statics dir.
+     */
+    @JsonIgnore
+    public List<ChallengeTarget> getChallengeTargets() {
+        List<ChallengeTarget> all = new ArrayList<>(targets.size() + 1);
+        all.add(new ChallengeTarget(staticsDir, null));
+        all.addAll(targets);
+        return all;
+    }
+
+    /**
+     * Normalizes a domain name to its lower-case ASCII form without trailing dot.
+     *
+     * @return The normalized domain, or {@code null} if the given domain is not a valid hostname
+     */
+    public static String normalizeDomain(String domain) {
+        String normalized = domain.trim();
+        if(normalized.endsWith("."))
+            normalized = normalized.substring(0, normalized.length() - 1);
+        try {
+            normalized = IDN.toASCII(normalized, IDN.ALLOW_UNASSIGNED).toLowerCase(Locale.ROOT);
+        } catch(IllegalArgumentException ex) {
+            return null;
+        }
+        return DOMAIN_PATTERN.matcher(normalized).matches() ? normalized : null;
+    }
 }
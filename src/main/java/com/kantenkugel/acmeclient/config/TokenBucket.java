@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Persisted state of a token bucket, refilling continuously up to the amount of its {@link RateLimit} over its period.
+ * <p>
+ * The limit is stored with the bucket so it can be refilled without knowing the CA,
+ * but is replaced by the currently configured one whenever the bucket is used.
+ */
+public class TokenBucket {
+    private RateLimit limit;
+    private double tokens;
+    private Date updated;
+
+    @JsonCreator
+    public TokenBucket(@JsonProperty("limit") RateLimit limit, @JsonProperty("tokens") double tokens,
+                       @JsonProperty("updated") Date updated) {
+        if(limit == null || updated == null)
+            throw new IllegalArgumentException("A token bucket needs a limit and an update time");
+        this.limit = limit;
+        this.tokens = tokens;
+        this.updated = updated;
+    }
+
+    /**
+     * Creates a bucket holding all tokens of the given limit.
+     */
+    public static TokenBucket full(RateLimit limit, Instant now) {
+        return new TokenBucket(limit, limit.getAmount(), Date.from(now));
+    }
+
+    public RateLimit getLimit() {
+        return limit;
+    }
+
+    public void setLimit(RateLimit limit) {
+        this.limit = limit;
+        tokens = Math.min(tokens, limit.getAmount());
+    }
+
+    public double getTokens() {
+        return tokens;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Adds the tokens accumulated since the last update.
+     */
+    public void refill(Instant now) {
+        long elapsed = Duration.between(updated.toInstant(), now).toMillis();
+        if(elapsed <= 0)
+            return;
+        tokens = Math.min(limit.getAmount(), tokens + (double) elapsed * limit.getAmount() / limit.getPeriod().toMillis());
+        updated = Date.from(now);
+    }
+
+    @JsonIgnore
+    public boolean isAvailable() {
+        return tokens >= 1;
+    }
+
+    @JsonIgnore
+    public boolean isFull() {
+        return tokens >= limit.getAmount();
+    }
+
+    public void take() {
+        tokens = Math.max(0, tokens - 1);
+    }
+
+    /**
+     * Returns the time until a token is available, assuming the bucket was just refilled.
+     */
+    public Duration untilAvailable() {
+        if(isAvailable())
+            return Duration.ZERO;
+        return Duration.ofMillis((long) Math.ceil((1 - tokens) * limit.getPeriod().toMillis() / limit.getAmount()));
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.server;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.SiteConfig;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * A single issuance job submitted to the {@link JobServer}.
+ */
+public class IssuanceJob implements Comparable<IssuanceJob> {
+    private final String id;
+    private final long sequence;
+    private final int priority;
+    private final Config config;
+    private final Date created = new Date();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Date started;
+    private volatile Date finished;
+    private volatile String error;
+    private volatile Date retryAt;
+
+    IssuanceJob(String id, long sequence, int priority, Config config) {
+        this.id = id;
+        this.sequence = sequence;
+        this.priority = priority;
+        this.config = config;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public List<String> getDomains() {
+        return config.getSiteConfigs().stream().map(SiteConfig::getDomain).collect(Collectors.toList());
+    }
+
+    public File getCertFile() {
+        return config.getCertFile();
+    }
+
+    public Date getExpiry() {
+        return config.getExpiry();
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public Date getStarted() {
+        return started;
+    }
+
+    public Date getFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the reason the job failed, or {@code null} if it didn't fail.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Returns the point in time a deferred job is queued again at, or {@code null} if it isn't deferred.
+     */
+    public Date getRetryAt() {
+        return retryAt;
+    }
+
+    @JsonIgnore
+    public Config getConfig() {
+        return config;
+    }
+
+    @JsonIgnore
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Waits until the job is done or the timeout is over.
+     *
+     * @return Whether or not the job is done
+     */
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    void start() {
+        started = new Date();
+        status = Status.RUNNING;
+    }
+
+    void defer(Date retryAt) {
+        this.retryAt = retryAt;
+        status = Status.DEFERRED;
+    }
+
+    void requeue() {
+        retryAt = null;
+        status = Status.QUEUED;
+    }
+
+    void finish(String error) {
+        this.error = error;
+        finished = new Date();
+        status = error == null ? Status.SUCCEEDED : Status.FAILED;
+        done.countDown();
+    }
+
+    /**
+     * Orders jobs by descending priority, and jobs of equal priority by submission order.
+     */
+    @Override
+    public int compareTo(IssuanceJob other) {
+        int byPriority = Integer.compare(other.priority, priority);
+        return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+    }
+
+    public enum Status {
+        QUEUED, RUNNING, DEFERRED, SUCCEEDED, FAILED
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.server;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.kantenkugel.acmeclient.config.ChainPreference;
+import com.kantenkugel.acmeclient.config.ChallengeTarget;
+import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.HookConfig;
+import com.kantenkugel.acmeclient.config.ServerConfig;
+import com.kantenkugel.acmeclient.config.SiteConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The body of a request to submit an issuance job.
+ * All domains of a job share the same webroot and challenge targets and end up in the same certificate.
+ * <p>
+ * As anything able to reach the server could submit jobs, requests can't declare commands:
+ * hooks are referenced by their name in the {@link ServerConfig} and only webroots are allowed as challenge targets.
+ * Key and certificate files are relative to (and confined to) the output directory of the server.
+ */
+public class JobRequest {
+    private List<String> domains;
+    private File webroot;
+    private List<String> targets;
+    private File keyFile;
+    private File certFile;
+    private File leafFile;
+    private File chainFile;
+    private String preferredIssuer;
+    private boolean shortestChain;
+    private List<String> hooks;
+    private int priority;
+
+    @JsonCreator
+    public JobRequest(@JsonProperty("domains") List<String> domains, @JsonProperty("webroot") File webroot,
+                      @JsonProperty("targets") List<String> targets, @JsonProperty("keyFile") File keyFile,
+                      @JsonProperty("certFile") File certFile, @JsonProperty("leafFile") File leafFile,
+                      @JsonProperty("chainFile") File chainFile, @JsonProperty("preferredIssuer") String preferredIssuer,
+                      @JsonProperty("shortestChain") boolean shortestChain, @JsonProperty("hooks") List<String> hooks,
+                      @JsonProperty("priority") int priority) {
+        this.domains = domains == null ? Collections.emptyList() : domains;
+        this.webroot = webroot;
+        this.targets = targets == null ? Collections.emptyList() : targets;
+        this.keyFile = keyFile;
+        this.certFile = certFile;
+        this.leafFile = leafFile;
+        this.chainFile = chainFile;
+        this.preferredIssuer = preferredIssuer;
+        this.shortestChain = shortestChain;
+        this.hooks = hooks == null ? Collections.emptyList() : hooks;
+        this.priority = priority;
+    }
+
+    /**
+     * Validates the request and creates the {@link Config} to issue.
+     *
+     * @param serverConfig
+     *            The config of the server, defining the output directory and the available hooks
+     * @throws IllegalArgumentException
+     *             If the request is invalid
+     */
+    Config toConfig(ServerConfig serverConfig) {
+        if(domains.isEmpty())
+            throw new IllegalArgumentException("At least one domain is required");
+        if(webroot == null || !webroot.isDirectory())
+            throw new IllegalArgumentException("Webroot is missing or not a directory");
+        if(keyFile == null || certFile == null)
+            throw new IllegalArgumentException("keyFile and certFile are required");
+
+        List<ChallengeTarget> challengeTargets = new ArrayList<>();
+        for(String target : targets) {
+            ChallengeTarget challengeTarget = ChallengeTarget.parse(target);
+            if(challengeTarget.getCommand() != null)
+                throw new IllegalArgumentException("Command targets can't be submitted, only webroots");
+            if(!challengeTarget.getWebroot().isDirectory())
+                throw new IllegalArgumentException("Target " + target + " does not exist or is not a directory");
+            challengeTargets.add(challengeTarget);
+        }
+
+        List<HookConfig> hookConfigs = new ArrayList<>();
+        for(String hook : hooks) {
+            HookConfig hookConfig = serverConfig.getHooks().get(hook);
+            if(hookConfig == null)
+                throw new IllegalArgumentException("Unknown hook " + hook);
+            hookConfigs.add(hookConfig);
+        }
+
+        Set<String> normalized = new LinkedHashSet<>();
+        for(String domain : domains) {
+            String normalizedDomain = SiteConfig.normalizeDomain(domain);
+            if(normalizedDomain == null)
+                throw new IllegalArgumentException("Invalid domain " + domain);
+            normalized.add(normalizedDomain);
+        }
+        List<SiteConfig> sites = normalized.stream()
+                .map(domain -> new SiteConfig(domain, webroot, challengeTargets))
+                .collect(Collectors.toList());
+
+        File outputDir = serverConfig.getOutputDir();
+        return new Config(sites, confine(outputDir, keyFile, "keyFile"), confine(outputDir, certFile, "certFile"),
+                confine(outputDir, leafFile, "leafFile"), confine(outputDir, chainFile, "chainFile"),
+                new ChainPreference(preferredIssuer, shortestChain), hookConfigs, null);
+    }
+
+    /**
+     * Resolves the given relative path against the output directory, making sure it doesn't leave it
+     * (neither via {@code ..} nor via symbolic links).
+     * Missing parent directories (eg. of {@code tenant/site.crt}) are created inside the output directory.
+     */
+    static File confine(File outputDir, File file, String name) {
+        if(file == null)
+            return null;
+        if(file.isAbsolute())
+            throw new IllegalArgumentException(name + " has to be relative to the output directory");
+        try {
+            Path base = outputDir.getCanonicalFile().toPath();
+            Path resolved = base.resolve(file.toPath()).normalize();
+            if(!resolved.startsWith(base) || resolved.equals(base)
+                    || !resolved.toFile().getCanonicalFile().toPath().startsWith(base))
+                throw new IllegalArgumentException(name + " has to be inside the output directory");
+            Files.createDirectories(resolved.getParent());
+            return resolved.toFile();
+        } catch(IOException ex) {
+            throw new IllegalArgumentException("Could not resolve " + name + ": " + ex.getMessage());
+        }
+    }
+
+    public List<String> getDomains() {
+        return domains;
+    }
+
+    /**
+     * Returns the priority of the job. Jobs with higher priority are started first.
+     */
+    public int getPriority() {
+        return priority;
+    }
+}
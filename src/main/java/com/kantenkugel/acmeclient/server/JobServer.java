@@ -0,0 +1,323 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.kantenkugel.acmeclient.IssuanceDeferredException;
+import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.ServerConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Resident server accepting issuance jobs via a local HTTP API.
+ * <p>
+ * Endpoints:
+ * <ul>
+ *     <li>{@code POST /jobs}: submits a job (body: {@link JobRequest}), responds with the queued job</li>
+ *     <li>{@code GET /jobs}: lists all known jobs</li>
+ *     <li>{@code GET /jobs/<id>[?wait=<seconds>]}: returns the job,
+ *     optionally waiting up to the given amount of seconds for it to finish (long-polling)</li>
+ * </ul>
+ * Jobs are run by a fixed amount of workers, taking the job with the highest priority first.
+ * Jobs deferred because of rate limits are queued again once the limits recovered.
+ * <p>
+ * Binding to a loopback address does not protect against other local processes or (via the browser) websites,
+ * so every request has to authenticate with the server token as {@code Authorization: Bearer <token>}.
+ * Requests from browsers (with an {@code Origin} header or a {@code Host} other than the loopback address)
+ * and bodies other than {@code application/json} are rejected.
+ */
+public class JobServer {
+    private static final Logger LOG = LoggerFactory.getLogger(JobServer.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper().disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+
+    private static final String PATH = "/jobs";
+    // Max time a client may wait for a job to finish in a single request
+    private static final long MAX_WAIT_SECONDS = 300;
+    // Time finished jobs are kept for querying
+    private static final long RETENTION_HOURS = 24;
+    // Host names a request to the loopback address can have, used to reject DNS rebinding
+    private static final List<String> LOOPBACK_HOSTS = Arrays.asList("localhost", "127.0.0.1", "[::1]");
+
+    private final Issuer issuer;
+    private final int workers;
+    private final ServerConfig serverConfig;
+    private final byte[] token;
+    private final PriorityBlockingQueue<IssuanceJob> queue = new PriorityBlockingQueue<>();
+    private final Map<String, IssuanceJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "JobScheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param issuer
+     *            Issues the certificate of a job
+     * @param workers
+     *            Max amount of jobs running at the same time
+     * @param serverConfig
+     *            Settings the submitted jobs are restricted to
+     * @param token
+     *            The token clients have to authenticate with
+     */
+    public JobServer(Issuer issuer, int workers, ServerConfig serverConfig, String token) {
+        if(workers < 1)
+            throw new IllegalArgumentException("At least one worker is required");
+        this.issuer = issuer;
+        this.workers = workers;
+        this.serverConfig = serverConfig;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Starts the workers and the HTTP server on the given address.
+     * The address should be a loopback address, as the API is served via plain HTTP
+     * and the token would be sent unencrypted otherwise.
+     */
+    public void start(InetSocketAddress address) throws IOException {
+        for(int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, "JobWorker-" + i);
+            worker.start();
+        }
+
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext(PATH, this::handle);
+        // Long-polling requests block their thread, so don't limit the amount of threads
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        LOG.info("Listening for jobs on http://{}:{}{} with {} workers",
+                address.getHostString(), server.getAddress().getPort(), PATH, workers);
+    }
+
+    /**
+     * Validates and queues a new job.
+     *
+     * @throws IllegalArgumentException
+     *             If the request is invalid
+     */
+    public IssuanceJob submit(JobRequest request) {
+        Config config = request.toConfig(serverConfig);
+        pruneJobs();
+        IssuanceJob job = new IssuanceJob(UUID.randomUUID().toString(), sequence.getAndIncrement(),
+                request.getPriority(), config);
+        jobs.put(job.getId(), job);
+        queue.add(job);
+        LOG.info("Queued job {} for domains {} with priority {}", job.getId(), job.getDomains(), job.getPriority());
+        return job;
+    }
+
+    public List<IssuanceJob> getJobs() {
+        return jobs.values().stream()
+                .sorted(Comparator.comparing(IssuanceJob::getCreated))
+                .collect(Collectors.toList());
+    }
+
+    public IssuanceJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    private void pruneJobs() {
+        Instant limit = Instant.now().minus(RETENTION_HOURS, ChronoUnit.HOURS);
+        jobs.values().removeIf(job -> job.isDone() && job.getFinished().toInstant().isBefore(limit));
+    }
+
+    private void work() {
+        while(!Thread.currentThread().isInterrupted()) {
+            IssuanceJob job;
+            try {
+                job = queue.take();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            LOG.info("Starting job {}", job.getId());
+            job.start();
+            String error = null;
+            try {
+                issuer.issue(job.getId(), job.getConfig());
+            } catch(IssuanceDeferredException ex) {
+                defer(job, ex.getRetryAt());
+                continue;
+            } catch(AcmeException | IOException | RuntimeException ex) {
+                LOG.error("Job {} failed", job.getId(), ex);
+                error = ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+            }
+            job.finish(error);
+            LOG.info("Finished job {} with status {}", job.getId(), job.getStatus());
+        }
+    }
+
+    private void defer(IssuanceJob job, Instant retryAt) {
+        job.defer(Date.from(retryAt));
+        LOG.info("Deferred job {} until {}", job.getId(), retryAt);
+        long delay = Math.max(0, retryAt.toEpochMilli() - System.currentTimeMillis());
+        scheduler.schedule(() -> {
+            job.requeue();
+            queue.add(job);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String id = path.length() > PATH.length() + 1 ? path.substring(PATH.length() + 1) : null;
+            String method = exchange.getRequestMethod();
+
+            if(exchange.getRequestHeaders().containsKey("Origin") || !isLoopbackHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                respond(exchange, 403, error("Requests from browsers are not allowed"));
+                return;
+            }
+            if(!isAuthorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                respond(exchange, 401, error("Missing or invalid token"));
+                return;
+            }
+
+            if(id == null && method.equals("POST")) {
+                if(!isJson(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+                    respond(exchange, 415, error("Content-Type has to be application/json"));
+                    return;
+                }
+                try {
+                    JobRequest request = MAPPER.readValue(exchange.getRequestBody(), JobRequest.class);
+                    respond(exchange, 202, submit(request));
+                } catch(JsonProcessingException ex) {
+                    respond(exchange, 400, error("Invalid request body: " + ex.getOriginalMessage()));
+                } catch(IllegalArgumentException ex) {
+                    respond(exchange, 400, error(ex.getMessage()));
+                }
+            } else if(id == null && method.equals("GET")) {
+                respond(exchange, 200, getJobs());
+            } else if(id != null && method.equals("GET")) {
+                IssuanceJob job = getJob(id);
+                if(job == null) {
+                    respond(exchange, 404, error("Unknown job " + id));
+                    return;
+                }
+                long wait = Math.min(MAX_WAIT_SECONDS, getWaitSeconds(exchange.getRequestURI().getQuery()));
+                if(wait > 0)
+                    job.await(wait, TimeUnit.SECONDS);
+                respond(exchange, 200, job);
+            } else {
+                respond(exchange, 405, error("Method not allowed"));
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, error("Interrupted"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    boolean isAuthorized(String authorization) {
+        if(authorization == null || !authorization.startsWith("Bearer "))
+            return false;
+        byte[] provided = authorization.substring(7).trim().getBytes(StandardCharsets.UTF_8);
+        // Constant time comparison, to not leak the token via timing
+        return MessageDigest.isEqual(provided, token);
+    }
+
+    static boolean isLoopbackHost(String host) {
+        if(host == null)
+            return false;
+        // Strip the port, keeping brackets of IPv6 addresses
+        int port = host.lastIndexOf(':');
+        if(port > host.lastIndexOf(']'))
+            host = host.substring(0, port);
+        return LOOPBACK_HOSTS.contains(host.toLowerCase(Locale.ROOT));
+    }
+
+    static boolean isJson(String contentType) {
+        if(contentType == null)
+            return false;
+        int parameters = contentType.indexOf(';');
+        String mediaType = parameters < 0 ? contentType : contentType.substring(0, parameters);
+        return mediaType.trim().equalsIgnoreCase("application/json");
+    }
+
+    private static long getWaitSeconds(String query) {
+        if(query == null)
+            return 0;
+        for(String param : query.split("&")) {
+            if(param.startsWith("wait=")) {
+                try {
+                    return Long.parseLong(param.substring(5));
+                } catch(NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static Map<String, String> error(String message) {
+        return Collections.singletonMap("error", message);
+    }
+
+    private static void respond(HttpExchange exchange, int code, Object body) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try(OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    /**
+     * Issues the certificate of a job.
+     */
+    public interface Issuer {
+        /**
+         * @param jobId
+         *            Id of the job
+         * @param config
+         *            The config to issue the certificate(s) for
+         */
+        void issue(String jobId, Config config) throws AcmeException, IOException;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.AcmeCaller.AcmeCallException;
+import com.kantenkugel.acmeclient.AcmeCaller.ErrorType;
+import com.kantenkugel.acmeclient.config.CaConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.Problem;
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeNetworkException;
+import org.shredzone.acme4j.exception.AcmeRateLimitedException;
+import org.shredzone.acme4j.exception.AcmeRetryAfterException;
+import org.shredzone.acme4j.exception.AcmeServerException;
+import org.shredzone.acme4j.toolbox.JSON;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the retries of calls against a stand-in CA, which never makes any request.
+ * Backoffs only advance the clock instead of waiting.
+ */
+public class AcmeCallerTest {
+    private MutableClock clock;
+    private CaConfig ca;
+    private AcmeCaller caller;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock();
+        ca = new CaConfig("test", "https://test.invalid/directory", null, null, 0, 0, null, 0, null, 0, null);
+        caller = new AcmeCaller(ca, clock) {
+            @Override
+            void sleep(long millis) {
+                clock.advance(Duration.ofMillis(millis));
+            }
+        };
+    }
+
+    @Test
+    public void classifiesErrors() throws Exception {
+        assertEquals(ErrorType.TRANSIENT, AcmeCaller.classify(new AcmeException("HTTP 503: Service Unavailable")));
+        assertEquals(ErrorType.RATE_LIMIT, AcmeCaller.classify(new AcmeException("HTTP 429: Too Many Requests")));
+        assertEquals(ErrorType.PERMANENT, AcmeCaller.classify(new AcmeException("HTTP 404: Not Found")));
+        assertEquals(ErrorType.PERMANENT, AcmeCaller.classify(new AcmeException("Invalid response")));
+        assertEquals(ErrorType.TRANSIENT, AcmeCaller.classify(new IOException("Connection reset")));
+        assertEquals(ErrorType.TRANSIENT, AcmeCaller.classify(new AcmeNetworkException(new IOException("Timeout"))));
+        assertEquals(ErrorType.TRANSIENT, AcmeCaller.classify(serverError("badNonce")));
+        assertEquals(ErrorType.TRANSIENT, AcmeCaller.classify(serverError("serverInternal")));
+        assertEquals(ErrorType.PERMANENT, AcmeCaller.classify(serverError("rejectedIdentifier")));
+        assertEquals(ErrorType.RATE_LIMIT, AcmeCaller.classify(new AcmeRateLimitedException(
+                problem("rateLimited"), Instant.now(), Collections.emptyList())));
+        assertEquals(ErrorType.PERMANENT, AcmeCaller.classify(
+                new AcmeCallException("Creating order", ErrorType.PERMANENT, new AcmeException("failed"))));
+    }
+
+    @Test
+    public void retriesTransientFailures() throws Exception {
+        assertEquals("result", caller.call("Test", failing(3, "result")));
+        assertEquals(0, ca.getConsecutiveFailures());
+    }
+
+    @Test
+    public void doesNotRetryPermanentFailures() {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            caller.call("Test", () -> {
+                calls.incrementAndGet();
+                throw serverError("rejectedIdentifier");
+            });
+            fail("Permanent failures must not be retried");
+        } catch(AcmeCallException ex) {
+            assertEquals(ErrorType.PERMANENT, ex.getType());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            caller.call("Test", () -> {
+                calls.incrementAndGet();
+                throw new IOException("Connection reset");
+            });
+            fail("Call must fail after max attempts");
+        } catch(AcmeCallException ex) {
+            assertEquals(ErrorType.TRANSIENT, ex.getType());
+        }
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void retryBudgetIsShared() throws Exception {
+        // Every call uses 3 retries and succeeds, so the breaker never opens
+        for(int i = 0; i < 6; i++)
+            caller.call("Test", failing(3, "result"));
+
+        // Only 2 of the 20 retries are left
+        try {
+            caller.call("Test", failing(3, "result"));
+            fail("Call must fail once the budget is exhausted");
+        } catch(AcmeCallException ex) {
+            assertEquals(ErrorType.TRANSIENT, ex.getType());
+        }
+        // Calls still work, but can't be retried anymore
+        assertEquals("result", caller.call("Test", failing(0, "result")));
+        try {
+            caller.call("Test", failing(1, "result"));
+            fail("Call must fail once the budget is exhausted");
+        } catch(AcmeCallException ignored) {
+        }
+
+        // The budget is renewed every hour
+        clock.advance(Duration.ofHours(1));
+        assertEquals("result", caller.call("Test", failing(3, "result")));
+    }
+
+    @Test
+    public void breakerOpensAfterConsecutiveFailures() throws Exception {
+        // 4 attempts of the first call, the 5th failure opens the breaker
+        AtomicInteger calls = new AtomicInteger();
+        for(int i = 0; i < 2; i++) {
+            try {
+                caller.call("Test", failing(Integer.MAX_VALUE, null, calls));
+                fail("Call must fail");
+            } catch(AcmeCallException ignored) {
+            }
+        }
+        assertEquals(5, calls.get());
+        assertTrue(caller.isBreakerOpen());
+
+        // Calls fail fast while the breaker is open
+        try {
+            caller.call("Test", failing(0, "result", calls));
+            fail("Call must fail while the breaker is open");
+        } catch(AcmeCallException ex) {
+            assertEquals(ErrorType.TRANSIENT, ex.getType());
+        }
+        assertEquals(5, calls.get());
+
+        // After the cooldown, a single call is let through, and a failure opens the breaker again right away
+        clock.advance(Duration.ofMinutes(5));
+        assertFalse(caller.isBreakerOpen());
+        try {
+            caller.call("Test", failing(Integer.MAX_VALUE, null, calls));
+            fail("Call must fail");
+        } catch(AcmeCallException ignored) {
+        }
+        assertEquals(6, calls.get());
+        assertTrue(caller.isBreakerOpen());
+
+        // A success closes the breaker
+        clock.advance(Duration.ofMinutes(5));
+        assertEquals("result", caller.call("Test", failing(0, "result", calls)));
+        assertFalse(caller.isBreakerOpen());
+    }
+
+    @Test
+    public void runIgnoresRetryAfter() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        caller.run("Updating order", () -> {
+            calls.incrementAndGet();
+            throw new AcmeRetryAfterException("Not ready yet", Instant.now().plusSeconds(3));
+        });
+        assertEquals(1, calls.get());
+        assertEquals(0, ca.getConsecutiveFailures());
+    }
+
+    @Test
+    public void finalizeIsNotRepeatedOnceProcessing() throws Exception {
+        AtomicInteger finalizations = new AtomicInteger();
+        AtomicInteger updates = new AtomicInteger();
+
+        // The CA finalized the order, but the response got lost
+        AcmeClient.finalizeOrder(caller, () -> {
+            if(finalizations.incrementAndGet() == 1)
+                throw new AcmeNetworkException(new IOException("Connection reset"));
+        }, () -> {
+            updates.incrementAndGet();
+            return Status.PROCESSING;
+        });
+
+        assertEquals(1, finalizations.get());
+        assertEquals(1, updates.get());
+    }
+
+    @Test
+    public void finalizeIsRepeatedWhileReady() throws Exception {
+        AtomicInteger finalizations = new AtomicInteger();
+
+        // The request never reached the CA
+        AcmeClient.finalizeOrder(caller, () -> {
+            if(finalizations.incrementAndGet() == 1)
+                throw new AcmeNetworkException(new IOException("Connection refused"));
+        }, () -> Status.READY);
+
+        assertEquals(2, finalizations.get());
+    }
+
+    private static AcmeCaller.Call<String> failing(int failures, String result) {
+        return failing(failures, result, new AtomicInteger());
+    }
+
+    /**
+     * Returns a call failing with a network error the given amount of times before returning the result.
+     */
+    private static AcmeCaller.Call<String> failing(int failures, String result, AtomicInteger calls) {
+        AtomicInteger failed = new AtomicInteger();
+        return () -> {
+            calls.incrementAndGet();
+            if(failed.getAndIncrement() < failures)
+                throw new AcmeNetworkException(new IOException("Connection reset"));
+            return result;
+        };
+    }
+
+    private static AcmeServerException serverError(String type) throws MalformedURLException {
+        return new AcmeServerException(problem(type));
+    }
+
+    private static Problem problem(String type) throws MalformedURLException {
+        JSON json = JSON.parse("{\"type\": \"urn:ietf:params:acme:error:" + type + "\", \"detail\": \"" + type + "\"}");
+        return new Problem(json, new URL("https://test.invalid/"));
+    }
+}
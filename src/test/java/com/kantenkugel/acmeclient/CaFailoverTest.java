@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.CaConfig;
+import com.kantenkugel.acmeclient.config.ChainPreference;
+import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.SiteConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shredzone.acme4j.exception.AcmeNetworkException;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the failover between two stand-in CAs, which never make any request.
+ */
+public class CaFailoverTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MutableClock clock;
+    private Config config;
+    private RateLimitGovernor limits;
+
+    @Before
+    public void setUp() throws IOException {
+        clock = new MutableClock();
+        config = new Config(Collections.singletonList(new SiteConfig("example.com", folder.getRoot())),
+                new File("site.key"), new File("site.crt"), null, null, ChainPreference.DEFAULT,
+                Collections.emptyList(), null);
+        limits = RateLimitGovernor.load(new File(folder.getRoot(), "ratelimits.json"));
+    }
+
+    @Test
+    public void deadlineHandsOverToNextCa() throws Exception {
+        CaConfig first = ca("first", 0, null);
+        CaConfig second = ca("second", 0, null);
+        CaFailover failover = failover(first, second);
+
+        List<String> tried = new ArrayList<>();
+        String certificate = failover.issue(config, connection -> {
+            tried.add(connection.getCa().getName());
+            if(connection.getCa() == first)
+                clock.advance(Duration.ofMinutes(first.getDeadlineMinutes() + 1));
+            return connection.getCaller().call("Creating order", () -> "certificate of " + connection.getCa().getName());
+        });
+
+        assertEquals("certificate of second", certificate);
+        assertEquals(Arrays.asList("first", "second"), tried);
+        assertEquals(1, first.getConsecutiveFailures());
+        assertEquals(0, second.getConsecutiveFailures());
+    }
+
+    @Test
+    public void deadlineOnlyAppliesToSingleAttempt() throws Exception {
+        CaConfig first = ca("first", 0, null);
+        CaFailover failover = failover(first);
+
+        failover.issue(config, connection -> {
+            clock.advance(Duration.ofMinutes(first.getDeadlineMinutes() + 1));
+            return "certificate";
+        });
+        // The deadline of the previous certificate must not affect the next one
+        assertEquals("certificate", failover.issue(config,
+                connection -> connection.getCaller().call("Creating order", () -> "certificate")));
+    }
+
+    @Test
+    public void unhealthyCaIsTriedLast() {
+        CaConfig failed = ca("failed", 1, Date.from(clock.instant()));
+        CaConfig healthy = ca("healthy", 0, null);
+        CaFailover failover = failover(failed, healthy);
+
+        assertEquals(Arrays.asList("healthy", "failed"), names(failover));
+        // Configured order is kept for the stored CAs
+        assertEquals(Arrays.asList(failed, healthy), failover.getCas());
+    }
+
+    @Test
+    public void slowCaIsTriedLast() {
+        CaConfig slow = ca("slow", 0, null);
+        slow.recordSuccess(slow.getMaxLatencyMillis() + 1);
+        CaConfig fast = ca("fast", 0, null);
+        fast.recordSuccess(10);
+
+        assertEquals(Arrays.asList("fast", "slow"), names(failover(slow, fast)));
+    }
+
+    @Test
+    public void outdatedLatencyIsIgnored() {
+        Date twoHoursAgo = Date.from(Instant.now().minus(Duration.ofHours(2)));
+        CaConfig demoted = new CaConfig("demoted", "https://demoted.invalid/directory", null, null, 0, 0, null,
+                60000, twoHoursAgo, 0, null);
+        assertTrue(demoted.isHealthy());
+
+        // A new measurement starts the average over instead of being dragged along by the old one
+        demoted.recordSuccess(10);
+        assertEquals(10, demoted.getLatencyMillis());
+        assertTrue(demoted.isHealthy());
+    }
+
+    @Test
+    public void openBreakerIsSkipped() throws Exception {
+        CaConfig broken = ca("broken", 0, null);
+        CaConfig backup = ca("backup", 0, null);
+        CaFailover failover = failover(broken, backup);
+
+        // Open the breaker of the first CA with consecutive network failures.
+        // The short deadline prevents waiting for the backoff between retries
+        CaConnection brokenConnection = failover.getConnections().get(0);
+        brokenConnection.getCaller().startDeadline(Duration.ofMillis(1));
+        for(int i = 0; i < 5 && !brokenConnection.getCaller().isBreakerOpen(); i++) {
+            try {
+                brokenConnection.getCaller().call("Failing", () -> {
+                    throw new AcmeNetworkException(new IOException("unreachable"));
+                });
+            } catch(AcmeCaller.AcmeCallException ignored) {
+            }
+        }
+        assertTrue(brokenConnection.getCaller().isBreakerOpen());
+        brokenConnection.getCaller().clearDeadline();
+
+        List<String> tried = new ArrayList<>();
+        failover.issue(config, connection -> {
+            tried.add(connection.getCa().getName());
+            return "certificate";
+        });
+        assertEquals(Collections.singletonList("backup"), tried);
+    }
+
+    @Test
+    public void returnsNullIfNoCaIssued() throws Exception {
+        CaFailover failover = failover(ca("first", 0, null), ca("second", 0, null));
+
+        assertNull(failover.issue(config, connection -> {
+            throw new IOException("failed");
+        }));
+    }
+
+    private CaFailover failover(CaConfig... cas) {
+        List<CaConnection> connections = new ArrayList<>();
+        for(CaConfig ca : cas)
+            connections.add(new CaConnection(ca, new AcmeCaller(ca, clock)));
+        return new CaFailover(connections, limits);
+    }
+
+    private static CaConfig ca(String name, int consecutiveFailures, Date lastFailure) {
+        return new CaConfig(name, "https://" + name + ".invalid/directory", null, null, 0, 0, null, 0, null,
+                consecutiveFailures, lastFailure);
+    }
+
+    private static List<String> names(CaFailover failover) {
+        List<String> names = new ArrayList<>();
+        failover.getConnections().forEach(connection -> names.add(connection.getCa().getName()));
+        return names;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.ChallengeTarget;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.shredzone.acme4j.exception.AcmeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChallengePublisherTest {
+    private static final String TOKEN = "token";
+    private static final String CONTENT = "token.thumbprint";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void publishesToAllTargets() throws Exception {
+        File first = folder.newFolder();
+        File second = folder.newFolder();
+        List<ChallengeTarget> targets = Arrays.asList(target(first), target(second), ChallengeTarget.parse("cmd:true"));
+
+        ChallengePublisher.publish(targets, TOKEN, CONTENT);
+
+        assertEquals(CONTENT, read(tokenFile(first)));
+        assertEquals(CONTENT, read(tokenFile(second)));
+    }
+
+    @Test
+    public void rollsBackIfAnyTargetFails() throws IOException {
+        File webroot = folder.newFolder();
+        // The challenge directory can't be created below a regular file
+        File broken = folder.newFile();
+        List<ChallengeTarget> targets = Arrays.asList(target(webroot), target(broken));
+
+        try {
+            ChallengePublisher.publish(targets, TOKEN, CONTENT);
+            fail("Publishing to a broken target must fail");
+        } catch(AcmeException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(broken.getPath()));
+        }
+        assertFalse(tokenFile(webroot).exists());
+    }
+
+    @Test
+    public void rollsBackIfCommandFails() throws IOException {
+        File webroot = folder.newFolder();
+        List<ChallengeTarget> targets = Arrays.asList(target(webroot), ChallengeTarget.parse("cmd:false"));
+
+        try {
+            ChallengePublisher.publish(targets, TOKEN, CONTENT);
+            fail("Publishing to a failing command must fail");
+        } catch(AcmeException ignored) {
+        }
+        assertFalse(tokenFile(webroot).exists());
+    }
+
+    @Test
+    public void cleanupKeepsChallengeDirectory() throws Exception {
+        File webroot = folder.newFolder();
+        File otherToken = new File(tokenFile(webroot).getParentFile(), "other");
+
+        ChallengePublisher.publish(Collections.singletonList(target(webroot)), TOKEN, CONTENT);
+        // Token of another authorization running at the same time
+        Files.write(otherToken.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+        ChallengePublisher.cleanup(Collections.singletonList(target(webroot)), TOKEN);
+
+        assertFalse(tokenFile(webroot).exists());
+        assertTrue(otherToken.exists());
+    }
+
+    private static ChallengeTarget target(File webroot) {
+        return new ChallengeTarget(webroot, null);
+    }
+
+    private static File tokenFile(File webroot) {
+        return new File(webroot, ".well-known/acme-challenge/" + TOKEN);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.ChainPreference;
+import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.HookConfig;
+import com.kantenkugel.acmeclient.config.SiteConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the hooks with stand-in commands: {@code true}, {@code false}
+ * and a script recording the target and certificate count of every run.
+ */
+public class HookDispatcherTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File log;
+    private String record;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new File(folder.getRoot(), "hooks.log");
+        File script = new File(folder.getRoot(), "record.sh");
+        Files.write(script.toPath(), Collections.singletonList(
+                "echo \"$ACME_TARGET $ACME_CERT_COUNT\" >> " + log.getAbsolutePath()), StandardCharsets.UTF_8);
+        record = "sh " + script.getAbsolutePath();
+    }
+
+    @Test
+    public void groupsCertificatesByTarget() throws IOException {
+        HookDispatcher dispatcher = new HookDispatcher(false);
+
+        dispatcher.certificateIssued(config("a", hook("web1", record), hook("web2", record)), new Date());
+        dispatcher.certificateIssued(config("b", hook("web1", record)), new Date());
+        assertFalse("Hooks must only run on flush", log.exists());
+
+        assertEquals(0, dispatcher.flush());
+        List<String> runs = runs();
+        Collections.sort(runs);
+        assertEquals(Arrays.asList("web1 2", "web2 1"), runs);
+    }
+
+    @Test
+    public void deduplicatesCommandsOfTarget() {
+        HookDispatcher dispatcher = new HookDispatcher(false);
+
+        // Each certificate declares the same reload, it must only fail once
+        dispatcher.certificateIssued(config("a", hook("web1", "false"), hook("web1", "true")), new Date());
+        dispatcher.certificateIssued(config("b", hook("web1", "false")), new Date());
+
+        assertEquals(1, dispatcher.flush());
+    }
+
+    @Test
+    public void flushRunsPendingTargetsOnce() throws IOException {
+        HookDispatcher dispatcher = new HookDispatcher(false);
+
+        dispatcher.certificateIssued(config("a", hook("web1", "false"), hook("web2", "false"), hook("web3", record)),
+                new Date());
+
+        assertEquals(2, dispatcher.flush());
+        // Nothing is pending anymore and the failures were reset
+        assertEquals(0, dispatcher.flush());
+        assertEquals(Collections.singletonList("web3 1"), runs());
+    }
+
+    @Test
+    public void certificateRestartsDebounceTimer() throws Exception {
+        HookDispatcher dispatcher = new HookDispatcher(true);
+
+        dispatcher.certificateIssued(config("a", new HookConfig("web1", record, 0, 2)), new Date());
+        Thread.sleep(1000);
+        dispatcher.certificateIssued(config("b", new HookConfig("web1", record, 0, 2)), new Date());
+        // The first timer would have run out by now
+        Thread.sleep(1500);
+        assertFalse("Timer must restart on every certificate", log.exists());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while(!log.exists() && System.currentTimeMillis() < deadline)
+            Thread.sleep(100);
+        assertEquals(0, dispatcher.flush());
+        assertEquals(Collections.singletonList("web1 2"), runs());
+    }
+
+    private List<String> runs() throws IOException {
+        return Files.readAllLines(log.toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static HookConfig hook(String target, String command) {
+        return new HookConfig(target, command, 0, 0);
+    }
+
+    private Config config(String name, HookConfig... hooks) {
+        return new Config(Collections.singletonList(new SiteConfig(name + ".example.com", folder.getRoot())),
+                new File(name + ".key"), new File(name + ".crt"), null, null, ChainPreference.DEFAULT,
+                Arrays.asList(hooks), null);
+    }
+}
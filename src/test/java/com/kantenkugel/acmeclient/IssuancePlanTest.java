@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.ChainPreference;
+import com.kantenkugel.acmeclient.config.Config;
+import com.kantenkugel.acmeclient.config.SiteConfig;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IssuancePlanTest {
+    private static final File WEBROOT = new File("/var/www");
+
+    @Test
+    public void keepsSmallConfig() {
+        Config config = config(IssuancePlan.MAX_DOMAINS_PER_CERT);
+
+        assertEquals(Collections.singletonList(config), IssuancePlan.plan(config));
+    }
+
+    @Test
+    public void splitsIntoNumberedCertificates() {
+        Config config = config(201);
+
+        List<Config> parts = IssuancePlan.plan(config);
+
+        assertEquals(3, parts.size());
+        assertEquals(100, parts.get(0).getSiteConfigs().size());
+        assertEquals(100, parts.get(1).getSiteConfigs().size());
+        assertEquals(1, parts.get(2).getSiteConfigs().size());
+        // Sites are split in declaration order
+        assertEquals("site0.example.com", parts.get(0).getSiteConfigs().get(0).getDomain());
+        assertEquals("site100.example.com", parts.get(1).getSiteConfigs().get(0).getDomain());
+        assertEquals("site200.example.com", parts.get(2).getSiteConfigs().get(0).getDomain());
+        for(int i = 0; i < parts.size(); i++) {
+            Config part = parts.get(i);
+            assertEquals(new File("certs", "site-" + (i + 1) + ".crt"), part.getCertFile());
+            assertEquals(new File("certs", "site-chain-" + (i + 1) + ".pem"), part.getChainFile());
+            assertNull(part.getLeafFile());
+            // All parts share the domain key
+            assertEquals(config.getKeyFile(), part.getKeyFile());
+        }
+    }
+
+    private static Config config(int domains) {
+        List<SiteConfig> sites = new ArrayList<>();
+        for(int i = 0; i < domains; i++)
+            sites.add(new SiteConfig("site" + i + ".example.com", WEBROOT));
+        return new Config(sites, new File("certs", "site.key"), new File("certs", "site.crt"), null,
+                new File("certs", "site-chain.pem"), ChainPreference.DEFAULT, Collections.emptyList(), null);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient;
+
+import com.kantenkugel.acmeclient.config.CaConfig;
+import com.kantenkugel.acmeclient.config.RateLimit;
+import com.kantenkugel.acmeclient.config.RateLimits;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RateLimitGovernorTest {
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+    private static final List<String> DOMAINS = Arrays.asList("a.example.com", "b.example.com");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private Clock clock;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "ratelimits.json");
+        clock = Clock.fixed(NOW, ZoneOffset.UTC);
+    }
+
+    @Test
+    public void defersDuplicateCertificates() throws IOException {
+        RateLimitGovernor governor = RateLimitGovernor.load(file, clock);
+        CaConfig ca = ca("letsencrypt", "acme://letsencrypt.org", null);
+
+        for(int i = 0; i < 5; i++)
+            assertNull(governor.tryAcquireOrder(ca, DOMAINS));
+        Instant retryAt = governor.tryAcquireOrder(ca, DOMAINS);
+        assertNotNull(retryAt);
+        // 5 per week, so the next token is available after a fifth of a week
+        assertEquals(NOW.plus(Duration.ofDays(7).dividedBy(5)), retryAt);
+
+        // Other sets of domains are not affected
+        assertNull(governor.tryAcquireOrder(ca, Collections.singletonList("c.example.com")));
+    }
+
+    @Test
+    public void defersFailedValidations() throws IOException {
+        RateLimitGovernor governor = RateLimitGovernor.load(file, clock);
+        CaConfig ca = ca("letsencrypt", "acme://letsencrypt.org", null);
+
+        for(int i = 0; i < 5; i++)
+            governor.recordFailedValidation(ca, "a.example.com");
+        assertEquals(NOW.plus(Duration.ofMinutes(12)), governor.tryAcquireOrder(ca, DOMAINS));
+        assertNull(governor.tryAcquireOrder(ca, Collections.singletonList("b.example.com")));
+    }
+
+    @Test
+    public void deferredOrderTakesNoTokens() throws IOException {
+        RateLimits limits = new RateLimits(new RateLimit(2, 60), null, new RateLimit(1, 60), null);
+        RateLimitGovernor governor = RateLimitGovernor.load(file, clock);
+        CaConfig ca = ca("internal", "https://acme.internal/directory", limits);
+
+        governor.recordFailedValidation(ca, "a.example.com");
+        assertNotNull(governor.tryAcquireOrder(ca, DOMAINS));
+        // Both orders are still available, as the deferred one didn't take an order token
+        assertNull(governor.tryAcquireOrder(ca, Collections.singletonList("c.example.com")));
+        assertNull(governor.tryAcquireOrder(ca, Collections.singletonList("d.example.com")));
+        assertNotNull(governor.tryAcquireOrder(ca, Collections.singletonList("e.example.com")));
+    }
+
+    @Test
+    public void limitsDefaultOnlyForLetsEncrypt() throws IOException {
+        RateLimitGovernor governor = RateLimitGovernor.load(file, clock);
+        CaConfig pebble = ca("pebble", "acme://pebble/localhost:14000", null);
+
+        assertSame(RateLimits.NONE, pebble.getRateLimits());
+        assertSame(RateLimits.LETS_ENCRYPT, ca("le", "https://acme-v02.api.letsencrypt.org/directory", null).getRateLimits());
+        assertSame(RateLimits.NONE, ca("le-staging", "acme://letsencrypt.org/staging", null).getRateLimits());
+        for(int i = 0; i < 50; i++)
+            assertNull(governor.tryAcquireOrder(pebble, DOMAINS));
+    }
+
+    @Test
+    public void limitsAreTrackedPerCa() throws IOException {
+        RateLimits limits = new RateLimits(new RateLimit(1, 60), null, null, null);
+        RateLimitGovernor governor = RateLimitGovernor.load(file, clock);
+        CaConfig first = ca("first", "https://first.invalid/directory", limits);
+        CaConfig second = ca("second", "https://second.invalid/directory", limits);
+
+        assertNull(governor.tryAcquireOrder(first, DOMAINS));
+        assertNotNull(governor.tryAcquireOrder(first, DOMAINS));
+        assertNull(governor.tryAcquireOrder(second, DOMAINS));
+    }
+
+    @Test
+    public void persistsBuckets() throws IOException {
+        RateLimits limits = new RateLimits(new RateLimit(2, 60), null, null, null);
+        CaConfig ca = ca("internal", "https://acme.internal/directory", limits);
+
+        RateLimitGovernor governor = RateLimitGovernor.load(file, clock);
+        assertNull(governor.tryAcquireOrder(ca, DOMAINS));
+        assertNull(governor.tryAcquireOrder(ca, DOMAINS));
+        governor.store();
+
+        RateLimitGovernor reloaded = RateLimitGovernor.load(file, clock);
+        assertEquals(NOW.plus(Duration.ofMinutes(30)), reloaded.tryAcquireOrder(ca, DOMAINS));
+
+        // Once refilled, the bucket is left out of the file
+        RateLimitGovernor later = RateLimitGovernor.load(file, Clock.fixed(NOW.plus(Duration.ofHours(1)), ZoneOffset.UTC));
+        later.store();
+        assertEquals("{ }", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+    }
+
+    @Test
+    public void registeredDomain() {
+        assertEquals("example.com", RateLimitGovernor.getRegisteredDomain("a.b.example.com"));
+        assertEquals("example.com", RateLimitGovernor.getRegisteredDomain("*.example.com"));
+        assertEquals("localhost", RateLimitGovernor.getRegisteredDomain("localhost"));
+    }
+
+    private static CaConfig ca(String name, String directory, RateLimits limits) {
+        return new CaConfig(name, directory, null, null, 0, 0, limits, 0, null, 0, null);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient.args;
+
+import com.kantenkugel.acmeclient.config.SiteConfig;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ArgParserTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addSiteNormalizesDomain() throws IOException {
+        Map<String, SiteConfig> sites = new HashMap<>();
+        File webroot = folder.newFolder();
+
+        assertNull(ArgParser.addSite(sites, " Bücher.Example. ", webroot, Collections.emptyList()));
+
+        SiteConfig site = sites.get("xn--bcher-kva.example");
+        assertNotNull(site);
+        assertEquals("xn--bcher-kva.example", site.getDomain());
+        assertEquals(webroot, site.getStaticsDir());
+    }
+
+    @Test
+    public void addSiteIgnoresDuplicateWithSameWebroot() throws IOException {
+        Map<String, SiteConfig> sites = new HashMap<>();
+        File webroot = folder.newFolder();
+
+        assertNull(ArgParser.addSite(sites, "example.com", webroot, Collections.emptyList()));
+        SiteConfig site = sites.get("example.com");
+        assertNull(ArgParser.addSite(sites, "EXAMPLE.com.", webroot, Collections.emptyList()));
+
+        assertEquals(1, sites.size());
+        assertSame(site, sites.get("example.com"));
+    }
+
+    @Test
+    public void addSiteRejectsDuplicateWithOtherWebroot() throws IOException {
+        Map<String, SiteConfig> sites = new HashMap<>();
+        File webroot = folder.newFolder();
+
+        assertNull(ArgParser.addSite(sites, "example.com", webroot, Collections.emptyList()));
+        assertNotNull(ArgParser.addSite(sites, "example.com", folder.newFolder(), Collections.emptyList()));
+
+        assertEquals(webroot, sites.get("example.com").getStaticsDir());
+    }
+
+    @Test
+    public void addSiteRejectsInvalidDomain() throws IOException {
+        Map<String, SiteConfig> sites = new HashMap<>();
+
+        assertNotNull(ArgParser.addSite(sites, "not a domain", folder.newFolder(), Collections.emptyList()));
+        assertNotNull(ArgParser.addSite(sites, "localhost", folder.newFolder(), Collections.emptyList()));
+        assertTrue(sites.isEmpty());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient.args;
+
+import com.kantenkugel.acmeclient.config.SiteConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ManifestReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File webroot;
+    private File otherWebroot;
+    private Map<String, SiteConfig> sites;
+    private List<String> errors;
+    private ManifestReader reader;
+
+    @Before
+    public void setUp() throws IOException {
+        webroot = folder.newFolder("www");
+        otherWebroot = folder.newFolder("other");
+        sites = new LinkedHashMap<>();
+        errors = new ArrayList<>();
+        reader = new ManifestReader(sites, errors);
+    }
+
+    @Test
+    public void readsCsv() throws IOException {
+        File manifest = manifest("sites.csv",
+                "example.com," + webroot,
+                "",
+                "www.example.com , " + otherWebroot,
+                "api.example.com");
+
+        reader.read(manifest, webroot, Collections.emptyList());
+
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(Arrays.asList("example.com", "www.example.com", "api.example.com"), new ArrayList<>(sites.keySet()));
+        assertEquals(otherWebroot, sites.get("www.example.com").getStaticsDir());
+        assertEquals(webroot, sites.get("api.example.com").getStaticsDir());
+    }
+
+    @Test
+    public void readsJsonLines() throws IOException {
+        File manifest = manifest("sites.jsonl",
+                "{\"domain\": \"example.com\", \"webroot\": \"" + otherWebroot + "\"}",
+                "{\"domain\": \"www.example.com\"}");
+
+        reader.read(manifest, webroot, Collections.emptyList());
+
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(otherWebroot, sites.get("example.com").getStaticsDir());
+        assertEquals(webroot, sites.get("www.example.com").getStaticsDir());
+    }
+
+    @Test
+    public void skipsHeaderAfterComments() throws IOException {
+        File manifest = manifest("sites.csv",
+                "# exported sites",
+                "",
+                "domain,webroot",
+                "example.com," + webroot);
+
+        reader.read(manifest, null, Collections.emptyList());
+
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(Collections.singleton("example.com"), sites.keySet());
+    }
+
+    @Test
+    public void normalizesDomains() throws IOException {
+        File manifest = manifest("sites.csv",
+                "Example.COM.",
+                "bücher.example",
+                "example.com");
+
+        reader.read(manifest, webroot, Collections.emptyList());
+
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(Arrays.asList("example.com", "xn--bcher-kva.example"), new ArrayList<>(sites.keySet()));
+    }
+
+    @Test
+    public void rejectsSameDomainWithOtherWebroot() throws IOException {
+        File manifest = manifest("sites.csv",
+                "example.com," + webroot,
+                "EXAMPLE.com," + otherWebroot);
+
+        reader.read(manifest, null, Collections.emptyList());
+
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0), errors.get(0).startsWith(manifest.getPath() + ":2: "));
+        assertEquals(webroot, sites.get("example.com").getStaticsDir());
+    }
+
+    @Test
+    public void collectsAllErrors() throws IOException {
+        File manifest = manifest("sites.csv",
+                "example.com",
+                "invalid_domain.com," + webroot,
+                "www.example.com," + new File(folder.getRoot(), "missing"),
+                "{\"domain\": ",
+                "api.example.com," + webroot);
+
+        reader.read(manifest, null, Collections.emptyList());
+
+        assertEquals(4, errors.size());
+        for(int i = 0; i < errors.size(); i++)
+            assertTrue(errors.get(i), errors.get(i).startsWith(manifest.getPath() + ":" + (i + 1) + ": "));
+        assertEquals(Collections.singleton("api.example.com"), sites.keySet());
+    }
+
+    @Test
+    public void checksEveryWebrootOnce() throws IOException {
+        assertEquals(webroot, reader.getWebroot(webroot.getPath()));
+        assertNull(reader.getWebroot(new File(folder.getRoot(), "missing").getPath()));
+
+        Files.delete(webroot.toPath());
+        assertTrue(new File(folder.getRoot(), "missing").mkdir());
+        assertEquals(webroot, reader.getWebroot(webroot.getPath()));
+        assertNull(reader.getWebroot(new File(folder.getRoot(), "missing").getPath()));
+    }
+
+    private File manifest(String name, String... lines) throws IOException {
+        File manifest = new File(folder.getRoot(), name);
+        Files.write(manifest.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return manifest;
+    }
+}
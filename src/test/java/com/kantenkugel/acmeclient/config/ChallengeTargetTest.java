@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient.config;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ChallengeTargetTest {
+    @Test
+    public void parsesWebroot() {
+        ChallengeTarget target = ChallengeTarget.parse("/mnt/web2");
+
+        assertEquals(new File("/mnt/web2"), target.getWebroot());
+        assertNull(target.getCommand());
+        assertNull(target.getCommandLine());
+        assertEquals("/mnt/web2", target.toString());
+    }
+
+    @Test
+    public void parsesCommand() {
+        ChallengeTarget target = ChallengeTarget.parse("cmd: /opt/publish-token web3 ");
+
+        assertNull(target.getWebroot());
+        assertEquals("/opt/publish-token web3", target.getCommand());
+        assertEquals(Arrays.asList("/opt/publish-token", "web3"), target.getCommandLine());
+        assertEquals("cmd:/opt/publish-token web3", target.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsQuotedCommand() {
+        ChallengeTarget.parse("cmd:/opt/publish-token \"web 3\"");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresWebrootOrCommand() {
+        new ChallengeTarget(new File("/mnt/web2"), "/opt/publish-token");
+    }
+
+    @Test
+    public void equalsByWebrootOrCommand() {
+        assertEquals(ChallengeTarget.parse("/mnt/web2"), ChallengeTarget.parse("/mnt/web2"));
+        assertEquals(ChallengeTarget.parse("/mnt/web2").hashCode(), ChallengeTarget.parse("/mnt/web2").hashCode());
+        assertEquals(ChallengeTarget.parse("cmd:/opt/publish"), ChallengeTarget.parse("cmd: /opt/publish"));
+        assertEquals(ChallengeTarget.parse("cmd:/opt/publish").hashCode(),
+                ChallengeTarget.parse("cmd: /opt/publish").hashCode());
+
+        assertNotEquals(ChallengeTarget.parse("/mnt/web2"), ChallengeTarget.parse("/mnt/web3"));
+        assertNotEquals(ChallengeTarget.parse("/opt/publish"), ChallengeTarget.parse("cmd:/opt/publish"));
+        assertNotEquals(ChallengeTarget.parse("cmd:/opt/publish"), ChallengeTarget.parse("/opt/publish"));
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient.config;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class CommandsTest {
+    @Test
+    public void splitsOnWhitespace() {
+        assertEquals(Arrays.asList("ssh", "web1", "systemctl", "reload", "nginx"),
+                Commands.split("  ssh web1\tsystemctl   reload nginx "));
+    }
+
+    @Test
+    public void splitsEmptyCommand() {
+        assertEquals(Collections.emptyList(), Commands.split(""));
+        assertEquals(Collections.emptyList(), Commands.split("   "));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDoubleQuotes() {
+        Commands.split("/opt/publish \"/srv/my www\"");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSingleQuotes() {
+        Commands.split("/opt/publish '/srv/my www'");
+    }
+}
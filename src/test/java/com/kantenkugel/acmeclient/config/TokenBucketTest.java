@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kantenkugel.acmeclient.config;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+    private static final RateLimit LIMIT = new RateLimit(5, 60);
+    private static final Instant START = Instant.parse("2026-01-01T00:00:00Z");
+
+    @Test
+    public void startsFull() {
+        TokenBucket bucket = TokenBucket.full(LIMIT, START);
+        assertTrue(bucket.isFull());
+        assertTrue(bucket.isAvailable());
+        assertEquals(Duration.ZERO, bucket.untilAvailable());
+    }
+
+    @Test
+    public void refillsContinuously() {
+        TokenBucket bucket = new TokenBucket(LIMIT, 0, Date.from(START));
+        // 5 tokens per hour, so one token every 12 minutes
+        bucket.refill(START.plus(Duration.ofMinutes(6)));
+        assertEquals(0.5, bucket.getTokens(), 1e-9);
+        assertFalse(bucket.isAvailable());
+
+        bucket.refill(START.plus(Duration.ofMinutes(12)));
+        assertEquals(1, bucket.getTokens(), 1e-9);
+        assertTrue(bucket.isAvailable());
+    }
+
+    @Test
+    public void refillStopsAtAmount() {
+        TokenBucket bucket = new TokenBucket(LIMIT, 4, Date.from(START));
+        bucket.refill(START.plus(Duration.ofDays(1)));
+        assertEquals(5, bucket.getTokens(), 1e-9);
+        assertTrue(bucket.isFull());
+    }
+
+    @Test
+    public void refillIgnoresTimeGoingBackwards() {
+        TokenBucket bucket = new TokenBucket(LIMIT, 2, Date.from(START));
+        bucket.refill(START.minus(Duration.ofHours(1)));
+        assertEquals(2, bucket.getTokens(), 1e-9);
+        assertEquals(Date.from(START), bucket.getUpdated());
+    }
+
+    @Test
+    public void untilAvailable() {
+        TokenBucket bucket = new TokenBucket(LIMIT, 0, Date.from(START));
+        assertEquals(Duration.ofMinutes(12), bucket.untilAvailable());
+
+        bucket = new TokenBucket(LIMIT, 0.75, Date.from(START));
+        assertEquals(Duration.ofMinutes(3), bucket.untilAvailable());
+    }
+
+    @Test
+    public void takeNeverGoesNegative() {
+        TokenBucket bucket = new TokenBucket(LIMIT, 1, Date.from(START));
+        bucket.take();
+        bucket.take();
+        assertEquals(0, bucket.getTokens(), 1e-9);
+    }
+
+    @Test
+    public void lowerLimitCapsTokens() {
+        TokenBucket bucket = TokenBucket.full(LIMIT, START);
+        bucket.setLimit(new RateLimit(2, 60));
+        assertEquals(2, bucket.getTokens(), 1e-9);
+        assertTrue(bucket.isFull());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+
+import static org.junit.Assert.*;
+
+public class IssuanceJobTest {
+    @Test
+    public void ordersByPriorityThenSubmission() {
+        IssuanceJob low = job("low", 0, 0);
+        IssuanceJob firstHigh = job("firstHigh", 1, 10);
+        IssuanceJob secondHigh = job("secondHigh", 2, 10);
+        IssuanceJob negative = job("negative", 3, -5);
+
+        PriorityBlockingQueue<IssuanceJob> queue = new PriorityBlockingQueue<>(
+                Arrays.asList(negative, secondHigh, low, firstHigh));
+        List<String> order = new ArrayList<>();
+        while(!queue.isEmpty())
+            order.add(queue.poll().getId());
+
+        assertEquals(Arrays.asList("firstHigh", "secondHigh", "low", "negative"), order);
+    }
+
+    @Test
+    public void comparesConsistently() {
+        IssuanceJob job = job("job", 0, 0);
+
+        assertEquals(0, job.compareTo(job));
+        assertTrue(job("high", 1, 1).compareTo(job) < 0);
+        assertTrue(job.compareTo(job("high", 1, 1)) > 0);
+        assertTrue(job.compareTo(job("later", 1, 0)) < 0);
+    }
+
+    private static IssuanceJob job(String id, long sequence, int priority) {
+        return new IssuanceJob(id, sequence, priority, null);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient.server;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class JobRequestTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File outputDir;
+
+    @Before
+    public void setUp() throws IOException {
+        outputDir = folder.newFolder("certs");
+    }
+
+    @Test
+    public void resolvesAgainstOutputDir() throws IOException {
+        File file = JobRequest.confine(outputDir, new File("site.crt"), "certFile");
+
+        assertEquals(new File(outputDir.getCanonicalFile(), "site.crt"), file);
+    }
+
+    @Test
+    public void createsSubdirectories() throws IOException {
+        File file = JobRequest.confine(outputDir, new File("tenant1/site.key"), "keyFile");
+
+        assertEquals(new File(outputDir.getCanonicalFile(), "tenant1/site.key"), file);
+        assertTrue(file.getParentFile().isDirectory());
+    }
+
+    @Test
+    public void keepsMissingFile() {
+        assertNull(JobRequest.confine(outputDir, null, "leafFile"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsParentDirectory() {
+        JobRequest.confine(outputDir, new File("tenant1/../../site.crt"), "certFile");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutputDirItself() {
+        JobRequest.confine(outputDir, new File("tenant1/.."), "certFile");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAbsolutePath() {
+        JobRequest.confine(outputDir, new File(outputDir, "site.crt").getAbsoluteFile(), "certFile");
+    }
+
+    @Test
+    public void rejectsSymbolicLinkLeavingOutputDir() throws IOException {
+        File outside = folder.newFolder("outside");
+        Files.createSymbolicLink(new File(outputDir, "link").toPath(), outside.toPath());
+
+        try {
+            JobRequest.confine(outputDir, new File("link/site.crt"), "certFile");
+            fail("Paths leaving the output directory via symbolic links must be rejected");
+        } catch(IllegalArgumentException ignored) {
+        }
+        assertEquals(0, outside.list().length);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Michael "Kantenkugel" Ritter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kantenkugel.acmeclient.server;
+
+import com.kantenkugel.acmeclient.config.ServerConfig;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JobServerTest {
+    private static final String TOKEN = "0123456789abcdef";
+
+    @Test
+    public void acceptsOnlyBearerToken() {
+        JobServer server = new JobServer((id, config) -> {}, 1, ServerConfig.getDefault(), TOKEN);
+
+        assertTrue(server.isAuthorized("Bearer " + TOKEN));
+        assertTrue(server.isAuthorized("Bearer " + TOKEN + " "));
+        assertFalse(server.isAuthorized(null));
+        assertFalse(server.isAuthorized(""));
+        assertFalse(server.isAuthorized(TOKEN));
+        assertFalse(server.isAuthorized("Basic " + TOKEN));
+        assertFalse(server.isAuthorized("Bearer "));
+        assertFalse(server.isAuthorized("Bearer " + TOKEN.substring(1)));
+        assertFalse(server.isAuthorized("Bearer " + TOKEN + "0"));
+    }
+
+    @Test
+    public void acceptsLoopbackHosts() {
+        assertTrue(JobServer.isLoopbackHost("localhost"));
+        assertTrue(JobServer.isLoopbackHost("LOCALHOST:8555"));
+        assertTrue(JobServer.isLoopbackHost("127.0.0.1:8555"));
+        assertTrue(JobServer.isLoopbackHost("[::1]"));
+        assertTrue(JobServer.isLoopbackHost("[::1]:8555"));
+    }
+
+    @Test
+    public void rejectsOtherHosts() {
+        assertFalse(JobServer.isLoopbackHost(null));
+        assertFalse(JobServer.isLoopbackHost(""));
+        // DNS rebinding: a website's domain resolving to the loopback address
+        assertFalse(JobServer.isLoopbackHost("attacker.example:8555"));
+        assertFalse(JobServer.isLoopbackHost("localhost.attacker.example"));
+        assertFalse(JobServer.isLoopbackHost("::1"));
+        assertFalse(JobServer.isLoopbackHost("[::2]:8555"));
+    }
+
+    @Test
+    public void acceptsOnlyJson() {
+        assertTrue(JobServer.isJson("application/json"));
+        assertTrue(JobServer.isJson("Application/JSON; charset=utf-8"));
+        assertFalse(JobServer.isJson(null));
+        assertFalse(JobServer.isJson("text/plain"));
+        assertFalse(JobServer.isJson("application/x-www-form-urlencoded"));
+        assertFalse(JobServer.isJson("application/jsonp"));
+    }
+}